@@ -0,0 +1,194 @@
+package org.watertemplate;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/*
+ * Where a template renders to bytes: what is appended is encoded with the charset into the buffer, which is drained to
+ * the stream or channel whenever it fills. Text already encoded in UTF-8 is copied as is when that is the charset.
+ *
+ * The buffer can be reused from one render to the next, and be direct when writing to a channel. Call finish() when
+ * done; closing the stream or channel is left to whoever opened it.
+ */
+public final class ByteSink implements Appendable, Flushable {
+
+    private final OutputStream stream;
+    private final WritableByteChannel channel;
+    private final CharsetEncoder encoder;
+    private final boolean utf8;
+    private final ByteBuffer buffer;
+
+    private char pending; // a high surrogate whose low one is in the next append
+    private boolean hasPending;
+
+    private ByteSink(final OutputStream stream, final WritableByteChannel channel, final Charset charset, final ByteBuffer buffer) {
+        this.stream = stream;
+        this.channel = channel;
+        this.encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.utf8 = charset.equals(StandardCharsets.UTF_8);
+        this.buffer = buffer;
+
+        if (buffer.capacity() < 2 * Math.ceil(encoder.maxBytesPerChar())) {
+            throw new IllegalArgumentException("The buffer must hold at least a surrogate pair");
+        }
+
+        ((Buffer) buffer).clear(); // as a Buffer, so that it also runs on Java 8
+    }
+
+    /* The buffer must have an array, which is written to the stream as is. */
+    public static ByteSink of(final OutputStream stream, final Charset charset, final ByteBuffer buffer) {
+        if (!buffer.hasArray()) {
+            throw new IllegalArgumentException("Streams need a buffer with an array");
+        }
+
+        return new ByteSink(stream, null, charset, buffer);
+    }
+
+    public static ByteSink of(final OutputStream stream, final Charset charset) {
+        return of(stream, charset, ByteBuffer.allocate(8192));
+    }
+
+    public static ByteSink of(final WritableByteChannel channel, final Charset charset, final ByteBuffer buffer) {
+        return new ByteSink(null, channel, charset, buffer);
+    }
+
+    @Override
+    public ByteSink append(final CharSequence csq) throws IOException {
+        encode(CharBuffer.wrap(csq == null ? "null" : csq)); // as StringBuilder does
+        return this;
+    }
+
+    @Override
+    public ByteSink append(final CharSequence csq, final int start, final int end) throws IOException {
+        encode(CharBuffer.wrap(csq == null ? "null" : csq, start, end));
+        return this;
+    }
+
+    @Override
+    public ByteSink append(final char c) throws IOException {
+        encode(CharBuffer.wrap(new char[]{c}));
+        return this;
+    }
+
+    /* Appends the text to out, as the given UTF-8 encoding of it if out is a ByteSink: what generated renderers call. */
+    public static void appendTo(final Appendable out, final String text, final byte[] utf8Bytes) throws IOException {
+        if (out instanceof ByteSink) {
+            ((ByteSink) out).append(text, utf8Bytes);
+        } else {
+            out.append(text);
+        }
+    }
+
+    /* Appends the text, whose UTF-8 encoding is given. */
+    public ByteSink append(final String text, final byte[] utf8Bytes) throws IOException {
+        if (!utf8 || hasPending) {
+            return append(text);
+        }
+
+        if (utf8Bytes.length > buffer.remaining()) {
+            drain();
+
+            if (utf8Bytes.length > buffer.remaining()) {
+                write(ByteBuffer.wrap(utf8Bytes));
+                return this;
+            }
+        }
+
+        buffer.put(utf8Bytes);
+        return this;
+    }
+
+    /* Writes what was appended so far, except half a surrogate pair, and flushes the stream. */
+    @Override
+    public void flush() throws IOException {
+        drain();
+
+        if (stream != null) {
+            stream.flush();
+        }
+    }
+
+    /* Ends the render: writes everything appended and flushes the stream. The sink can then be used for another. */
+    public void finish() throws IOException {
+        final CharBuffer rest = hasPending ? CharBuffer.wrap(new char[]{pending}) : CharBuffer.allocate(0);
+        hasPending = false;
+
+        while (encoder.encode(rest, buffer, true).isOverflow()) {
+            drain();
+        }
+
+        while (encoder.flush(buffer).isOverflow()) {
+            drain();
+        }
+
+        encoder.reset();
+        flush();
+    }
+
+    //
+
+    private void encode(final CharBuffer chars) throws IOException {
+        if (hasPending) {
+            if (!chars.hasRemaining()) {
+                return;
+            }
+
+            hasPending = false;
+
+            if (Character.isLowSurrogate(chars.get(chars.position()))) {
+                encode(CharBuffer.wrap(new char[]{pending, chars.get()}));
+            } else {
+                replace(); // a lone high surrogate, before what follows it
+            }
+        }
+
+        for (CoderResult result = encoder.encode(chars, buffer, false); !result.isUnderflow(); result = encoder.encode(chars, buffer, false)) {
+            drain(); // errors are replaced, so it overflowed
+        }
+
+        if (chars.hasRemaining()) {
+            pending = chars.get();
+            hasPending = true;
+        }
+    }
+
+    private void replace() throws IOException {
+        final byte[] replacement = encoder.replacement();
+
+        if (replacement.length > buffer.remaining()) {
+            drain();
+        }
+
+        buffer.put(replacement);
+    }
+
+    private void drain() throws IOException {
+        ((Buffer) buffer).flip();
+        write(buffer);
+        ((Buffer) buffer).clear();
+    }
+
+    private void write(final ByteBuffer bytes) throws IOException {
+        if (stream != null) {
+            stream.write(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+            ((Buffer) bytes).position(bytes.limit());
+            return;
+        }
+
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+    }
+}
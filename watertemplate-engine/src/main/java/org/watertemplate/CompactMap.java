@@ -0,0 +1,130 @@
+package org.watertemplate;
+
+import java.util.function.BiConsumer;
+
+/*
+ * A map of the few arguments a template usually has: keys, their hashes and values in flat arrays, probed linearly
+ * from the hash, so that adding an argument allocates no entry and looking one up compares hashes before keys.
+ */
+final class CompactMap<T> {
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    private String[] keys; // allocated with the first entry, most mapped objects never get one
+    private int[] hashes;
+    private Object[] values;
+    private int size;
+
+    int size() {
+        return size;
+    }
+
+    T get(final String key) {
+        return get(key, Key.hash(key));
+    }
+
+    @SuppressWarnings("unchecked")
+    T get(final String key, final int hash) {
+        final String[] keys = this.keys;
+
+        if (keys == null) {
+            return null;
+        }
+
+        final int mask = keys.length - 1;
+
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            final String k = keys[i];
+
+            if (k == null) {
+                return null;
+            }
+
+            if (k == key || (hashes[i] == hash && k.equals(key))) {
+                return (T) values[i];
+            }
+        }
+    }
+
+    void put(final String key, final int hash, final T value) {
+        if (keys == null) {
+            allocate(INITIAL_CAPACITY);
+        }
+
+        final int mask = keys.length - 1;
+        int i = hash & mask;
+
+        for (String k = keys[i]; k != null; k = keys[i]) {
+            if (k == key || (hashes[i] == hash && k.equals(key))) {
+                values[i] = value;
+                return;
+            }
+
+            i = (i + 1) & mask;
+        }
+
+        keys[i] = key;
+        hashes[i] = hash;
+        values[i] = value;
+
+        if (++size * 4 > keys.length * 3) {
+            grow();
+        }
+    }
+
+    void putAll(final CompactMap<T> map) {
+        map.forEach((key, hash, value) -> put(key, hash, value));
+    }
+
+    void forEach(final BiConsumer<String, T> action) {
+        forEach((key, hash, value) -> action.accept(key, value));
+    }
+
+    @SuppressWarnings("unchecked")
+    private void forEach(final Entry<T> action) {
+        if (keys == null) {
+            return;
+        }
+
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null) {
+                action.accept(keys[i], hashes[i], (T) values[i]);
+            }
+        }
+    }
+
+    //
+
+    private void grow() {
+        final String[] keys = this.keys;
+        final int[] hashes = this.hashes;
+        final Object[] values = this.values;
+
+        allocate(keys.length * 2);
+        final int mask = this.keys.length - 1;
+
+        for (int j = 0; j < keys.length; j++) {
+            if (keys[j] != null) {
+                int i = hashes[j] & mask;
+
+                while (this.keys[i] != null) {
+                    i = (i + 1) & mask;
+                }
+
+                this.keys[i] = keys[j];
+                this.hashes[i] = hashes[j];
+                this.values[i] = values[j];
+            }
+        }
+    }
+
+    private void allocate(final int capacity) {
+        keys = new String[capacity];
+        hashes = new int[capacity];
+        values = new Object[capacity];
+    }
+
+    private interface Entry<T> {
+        void accept(String key, int hash, T value);
+    }
+}
@@ -0,0 +1,43 @@
+package org.watertemplate;
+
+/*
+ * The key of an argument, with its hash worked out once: declared as a constant, it spares hashing the key on every
+ * add or lookup. A plain String key does the same, only a little slower.
+ *
+ *     private static final Key EMAIL = Key.of("email");
+ *     ...
+ *     add(EMAIL, user.getEmail());
+ */
+public class Key {
+
+    private final String key;
+    private final int hash;
+
+    protected Key(final String key) {
+        this.key = key;
+        this.hash = hash(key);
+    }
+
+    public static Key of(final String key) {
+        return new Key(key);
+    }
+
+    public final String getKey() {
+        return key;
+    }
+
+    final int hash() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return key;
+    }
+
+    /* The hash of the key spread over its low bits, which pick its place in a CompactMap. */
+    static int hash(final String key) {
+        final int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+}
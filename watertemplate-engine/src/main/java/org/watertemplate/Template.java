@@ -3,17 +3,25 @@ package org.watertemplate;
 import org.watertemplate.exception.RenderException;
 import org.watertemplate.interpreter.WaterInterpreter;
 
-import java.util.Collection;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 import static org.watertemplate.TemplateMap.SubTemplates;
+import static org.watertemplate.TemplateObject.SubTemplate;
 
 public abstract class Template {
 
     private static final Locale DEFAULT_LOCALE = Locale.US;
+    private static final Executor DEFAULT_EXECUTOR = defaultExecutor();
 
     /* Please use me */
     private final TemplateMap.Arguments arguments = new TemplateMap.Arguments();
@@ -35,6 +43,11 @@ public abstract class Template {
         return Template.DEFAULT_LOCALE;
     }
 
+    /* Override me if you want: where sub templates added with addConcurrent render */
+    protected Executor getExecutor() {
+        return Template.DEFAULT_EXECUTOR;
+    }
+
     protected final void add(final String key, final String value) {
         this.arguments.add(key, value);
     }
@@ -51,18 +64,84 @@ public abstract class Template {
         this.arguments.addMappedObject(key, object, mapper);
     }
 
-    protected final <T> void addCollection(final String key, final Collection<T> iterable, final BiConsumer<T, TemplateMap.Arguments> mapper) {
+    protected final <T> void addCollection(final String key, final Iterable<T> iterable, final BiConsumer<T, TemplateMap.Arguments> mapper) {
         this.arguments.addCollection(key, iterable, mapper);
     }
 
-    protected final <T> void addCollection(final String key, final Collection<T> iterable) {
+    protected final <T> void addCollection(final String key, final Iterable<T> iterable) {
         this.arguments.addCollection(key, iterable);
     }
 
+    /* Read as the template renders, as rows from a cursor: they can be looped over only once. A parallel stream, as
+     * from rows.parallelStream(), has its loop render in parallel chunks, still in order: the mapper then runs on
+     * several threads at once, so it and whatever it reads must be thread safe. Pass a sequential stream, as
+     * stream.sequential() makes, to render its loop on the rendering thread only. */
+    protected final <T> void addStream(final String key, final Stream<T> stream, final BiConsumer<T, TemplateMap.Arguments> mapper) {
+        this.arguments.addStream(key, stream, mapper);
+    }
+
+    protected final <T> void addStream(final String key, final Stream<T> stream) {
+        this.arguments.addStream(key, stream);
+    }
+
+    protected final <T> void addIterator(final String key, final Iterator<T> iterator, final BiConsumer<T, TemplateMap.Arguments> mapper) {
+        this.arguments.addIterator(key, iterator, mapper);
+    }
+
+    protected final <T> void addIterator(final String key, final Iterator<T> iterator) {
+        this.arguments.addIterator(key, iterator);
+    }
+
     protected final <T> void addLocaleSensitiveObject(final String key, final T object, final BiFunction<T, Locale, String> function) {
         this.arguments.addLocaleSensitiveObject(key, object, function);
     }
 
+    /* The same, with keys declared once as constants */
+
+    protected final void add(final Key key, final String value) {
+        this.arguments.add(key, value);
+    }
+
+    protected final void add(final Key key, final Boolean someCondition) {
+        this.arguments.add(key, someCondition);
+    }
+
+    protected final <T> void addMappedObject(final Key key, final T object, final Consumer<TemplateMap.Arguments> mapper) {
+        this.addMappedObject(key, object, (a, b) -> mapper.accept(b));
+    }
+
+    protected final <T> void addMappedObject(final Key key, final T object, final BiConsumer<T, TemplateMap.Arguments> mapper) {
+        this.arguments.addMappedObject(key, object, mapper);
+    }
+
+    protected final <T> void addCollection(final Key key, final Iterable<T> iterable, final BiConsumer<T, TemplateMap.Arguments> mapper) {
+        this.arguments.addCollection(key, iterable, mapper);
+    }
+
+    protected final <T> void addCollection(final Key key, final Iterable<T> iterable) {
+        this.arguments.addCollection(key, iterable);
+    }
+
+    protected final <T> void addStream(final Key key, final Stream<T> stream, final BiConsumer<T, TemplateMap.Arguments> mapper) {
+        this.arguments.addStream(key, stream, mapper);
+    }
+
+    protected final <T> void addStream(final Key key, final Stream<T> stream) {
+        this.arguments.addStream(key, stream);
+    }
+
+    protected final <T> void addIterator(final Key key, final Iterator<T> iterator, final BiConsumer<T, TemplateMap.Arguments> mapper) {
+        this.arguments.addIterator(key, iterator, mapper);
+    }
+
+    protected final <T> void addIterator(final Key key, final Iterator<T> iterator) {
+        this.arguments.addIterator(key, iterator);
+    }
+
+    protected final <T> void addLocaleSensitiveObject(final Key key, final T object, final BiFunction<T, Locale, String> function) {
+        this.arguments.addLocaleSensitiveObject(key, object, function);
+    }
+
     ////
 
     public final String render() {
@@ -70,27 +149,92 @@ public abstract class Template {
     }
 
     public final String render(final Locale locale) {
+        final StringBuilder sb = new StringBuilder();
+
+        try {
+            render(locale, sb);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // a StringBuilder never throws it
+        }
+
+        return sb.toString();
+    }
+
+    /* Writes the template to out as it renders, sub templates included, with no string in between. */
+    public final void render(final Locale locale, final Appendable out) throws IOException {
+        render(null, locale, out);
+    }
+
+    /* Renders with the given content, the template whose master this is, if any. */
+    private void render(final SubTemplate content, final Locale locale, final Appendable out) throws IOException {
         try {
             final Template masterTemplate = getMasterTemplate();
 
             if (masterTemplate == null) {
-                return renderWithoutMaster(locale);
+                renderWithoutMaster(content, locale, out);
             } else {
-                masterTemplate.arguments.addTemplateWhichWontRenderItsMasterTemplate("content", this);
-                return masterTemplate.render(locale);
+                masterTemplate.render(new SubTemplate.WithoutMaster(this, content), locale, out);
             }
         } catch (RuntimeException e) {
             throw new RenderException(this, locale, e);
         }
     }
 
-    final String renderWithoutMaster(final Locale locale) {
+    final String renderWithoutMaster(final SubTemplate content, final Locale locale) {
+        final StringBuilder sb = new StringBuilder();
+
+        try {
+            renderWithoutMaster(content, locale, sb);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return sb.toString();
+    }
+
+    /* What a render adds goes on a frame of its own, so that the same template renders on several threads at once, as
+     * from the body of a loop in parallel. */
+    final void renderWithoutMaster(final SubTemplate content, final Locale locale, final Appendable out) throws IOException {
+        final TemplateMap.Arguments arguments = this.arguments.frame();
+
+        if (content != null) {
+            arguments.add("content", content);
+        }
+
         SubTemplates subTemplates = new SubTemplates();
         addSubTemplates(subTemplates);
         subTemplates.map.forEach(arguments::add);
-        addCollection("subtemplates", subTemplates.list);
+        arguments.addCollection("subtemplates", subTemplates.list);
+
+        final WaterInterpreter interpreter = WaterInterpreter.instantiate(getFilePath(), getDefaultLocale());
+        subTemplates.start(() -> interpreter.ids(locale), locale, getExecutor());
+
+        try {
+            interpreter.render(arguments, locale, out);
+        } catch (RuntimeException | IOException | Error e) {
+            subTemplates.cancel().forEach(e::addSuppressed);
+            throw e;
+        }
+
+        final List<RuntimeException> failures = subTemplates.cancel();
+
+        if (!failures.isEmpty()) {
+            failures.subList(1, failures.size()).forEach(failures.get(0)::addSuppressed);
+            throw failures.get(0);
+        }
+    }
 
-        return WaterInterpreter.instantiate(getFilePath(), getDefaultLocale()).string(arguments, locale);
+    /* Virtual threads where there are, since sub templates mostly wait on what they are given; else daemon threads. */
+    private static Executor defaultExecutor() {
+        try {
+            return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(runnable -> {
+                final Thread thread = new Thread(runnable, "water-sub-template");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
     }
 }
 
@@ -1,17 +1,31 @@
 package org.watertemplate;
 
+import org.watertemplate.interpreter.parser.SymbolTable;
+
 import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 import static org.watertemplate.TemplateObject.SubTemplate;
 
 public abstract class TemplateMap<T> {
 
-    final Map<String, T> map = new HashMap<>();
+    final CompactMap<T> map = new CompactMap<>();
+
+    void add(final String key, final T value) {
+        add(key, Key.hash(key), value);
+    }
+
+    void add(final Key key, final T value) {
+        add(key.getKey(), key.hash(), value);
+    }
 
-    final void add(final String key, final T value) {
-        this.map.put(key, value);
+    void add(final String key, final int hash, final T value) {
+        this.map.put(key, hash, value);
     }
 
     public static class SubTemplates extends TemplateMap<SubTemplate> {
@@ -25,47 +39,229 @@ public abstract class TemplateMap<T> {
             add(key, templateObject);
             list.add(templateObject);
         }
+
+        /* Renders the sub template on the executor of the template as soon as it starts to render, rather than when
+         * its id is reached, if every render reaches it. One whose id is only under an if or in the body of a loop is
+         * rendered when reached, as with add, so that a branch not taken never renders it. If the render fails before
+         * reaching one, it is interrupted, and what it failed with, if anything, is added to the render's failure. */
+        public final void addConcurrent(final String key, final Template subTemplate) {
+            SubTemplate templateObject = new SubTemplate.Concurrent(subTemplate);
+            add(key, templateObject);
+            list.add(templateObject);
+        }
+
+        /* Starts the concurrent sub templates whose ids every render reaches, see WaterInterpreter.ids: all of them if
+         * every render loops over the list of them or if the ids aren't known. */
+        final void start(final Supplier<Set<String>> ids, final Locale locale, final Executor executor) {
+            if (list.stream().noneMatch(subTemplate -> subTemplate instanceof SubTemplate.Concurrent)) {
+                return;
+            }
+
+            final Set<String> templateIds = ids.get();
+
+            map.forEach((key, subTemplate) -> {
+                if (subTemplate instanceof SubTemplate.Concurrent && (templateIds == null || templateIds.contains(key) || templateIds.contains("subtemplates"))) {
+                    ((SubTemplate.Concurrent) subTemplate).start(locale, executor);
+                }
+            });
+        }
+
+        /* Stops those the template didn't reach: what those that were done failed with, if anything. */
+        final List<RuntimeException> cancel() {
+            final List<RuntimeException> failures = new ArrayList<>();
+
+            for (SubTemplate subTemplate : list) {
+                if (subTemplate instanceof SubTemplate.Concurrent) {
+                    final RuntimeException failure = ((SubTemplate.Concurrent) subTemplate).cancel();
+
+                    if (failure != null) {
+                        failures.add(failure);
+                    }
+                }
+            }
+
+            return failures;
+        }
     }
 
     public static final class Arguments extends TemplateMap<TemplateObject> {
+        private Arguments parent; // looked up for what isn't here
+        // What was found with the symbols of the last template that looked this up. Loops in parallel and renders of
+        // the same template on other threads may look up the same arguments, so both are only read and written whole.
+        private volatile Slots slots;
+        private volatile boolean lookedUp;
+
         public Arguments() {
         }
 
         public Arguments(final Arguments arguments) {
+            this.parent = arguments.parent;
             map.putAll(arguments.map);
         }
 
-        public final <T> void addCollection(final String key, final Collection<T> iterable) {
-            add(key, new TemplateObject.Collection<T>(iterable, (a, b) -> {
-            }));
+        /* Arguments on top of these ones, as a loop needs for its variable: what is added to them hides what these
+         * have, for them only. Unlike a copy, they take no time to make however many arguments these are. */
+        public final Arguments frame() {
+            final Arguments frame = new Arguments();
+            frame.parent = this;
+            return frame;
         }
 
-        public final <T> void addCollection(final String key, final Collection<T> iterable, final BiConsumer<T, Arguments> mapper) {
+        public final <T> void addCollection(final String key, final Iterable<T> iterable) {
+            addCollection(key, iterable, (a, b) -> {
+            });
+        }
+
+        public final <T> void addCollection(final Key key, final Iterable<T> iterable) {
+            addCollection(key, iterable, (a, b) -> {
+            });
+        }
+
+        public final <T> void addCollection(final String key, final Iterable<T> iterable, final BiConsumer<T, Arguments> mapper) {
+            add(key, new TemplateObject.Collection<T>(iterable, mapper));
+        }
+
+        public final <T> void addCollection(final Key key, final Iterable<T> iterable, final BiConsumer<T, Arguments> mapper) {
             add(key, new TemplateObject.Collection<T>(iterable, mapper));
         }
 
+        /* Streams and iterators are read as the template renders, and can be looped over only once. Parallel streams
+         * are collected first, then looped over in parallel: their mappers must be thread safe. */
+
+        public final <T> void addStream(final String key, final Stream<T> stream) {
+            addStream(key, stream, (a, b) -> {
+            });
+        }
+
+        public final <T> void addStream(final Key key, final Stream<T> stream) {
+            addStream(key, stream, (a, b) -> {
+            });
+        }
+
+        public final <T> void addStream(final String key, final Stream<T> stream, final BiConsumer<T, Arguments> mapper) {
+            add(key, new TemplateObject.Collection<T>(stream, mapper));
+        }
+
+        public final <T> void addStream(final Key key, final Stream<T> stream, final BiConsumer<T, Arguments> mapper) {
+            add(key, new TemplateObject.Collection<T>(stream, mapper));
+        }
+
+        public final <T> void addIterator(final String key, final Iterator<T> iterator) {
+            addIterator(key, iterator, (a, b) -> {
+            });
+        }
+
+        public final <T> void addIterator(final Key key, final Iterator<T> iterator) {
+            addIterator(key, iterator, (a, b) -> {
+            });
+        }
+
+        public final <T> void addIterator(final String key, final Iterator<T> iterator, final BiConsumer<T, Arguments> mapper) {
+            add(key, new TemplateObject.Collection<T>(TemplateObject.Collection.once(iterator), mapper));
+        }
+
+        public final <T> void addIterator(final Key key, final Iterator<T> iterator, final BiConsumer<T, Arguments> mapper) {
+            add(key, new TemplateObject.Collection<T>(TemplateObject.Collection.once(iterator), mapper));
+        }
+
         public final <T> void addMappedObject(final String key, final T object, final BiConsumer<T, Arguments> mapper) {
             add(key, new TemplateObject.Mapped<>(object, mapper));
         }
 
+        public final <T> void addMappedObject(final Key key, final T object, final BiConsumer<T, Arguments> mapper) {
+            add(key, new TemplateObject.Mapped<>(object, mapper));
+        }
+
         public final <T> void addLocaleSensitiveObject(final String key, final T object, final BiFunction<T, Locale, String> function) {
             add(key, new TemplateObject.LocaleSensitive<>(object, function));
         }
 
+        public final <T> void addLocaleSensitiveObject(final Key key, final T object, final BiFunction<T, Locale, String> function) {
+            add(key, new TemplateObject.LocaleSensitive<>(object, function));
+        }
+
         public final void add(final String key, final String value) {
             add(key, new TemplateObject.Value(value));
         }
 
+        public final void add(final Key key, final String value) {
+            add(key, new TemplateObject.Value(value));
+        }
+
         public final void add(final String key, final Boolean value) {
             add(key, new TemplateObject.Condition(value));
         }
 
+        public final void add(final Key key, final Boolean value) {
+            add(key, new TemplateObject.Condition(value));
+        }
+
         public final TemplateObject get(final String key) {
-            return map.get(key);
+            return get(key, Key.hash(key));
+        }
+
+        public final TemplateObject get(final Key key) {
+            return get(key.getKey(), key.hash());
         }
 
-        final void addTemplateWhichWontRenderItsMasterTemplate(final String key, final Template subTemplate) {
-            add(key, new SubTemplate.WithoutMaster(subTemplate));
+        private TemplateObject get(final String key, final int hash) {
+            for (Arguments arguments = this; arguments != null; arguments = arguments.parent) {
+                final TemplateObject object = arguments.map.get(key, hash);
+
+                if (object != null) {
+                    return object;
+                }
+            }
+
+            return null;
+        }
+
+        /* Arguments looked up only once, like most mapped objects, don't get slots. */
+        public final TemplateObject get(final SymbolTable.Symbol symbol) {
+            Slots slots = this.slots;
+
+            if (slots == null || slots.symbolTable != symbol.getSymbolTable() || symbol.getSlot() >= slots.objects.length()) {
+                if (!lookedUp) {
+                    lookedUp = true;
+                    return get((Key) symbol);
+                }
+
+                this.slots = slots = new Slots(symbol.getSymbolTable()); // a race makes one more, which finds the same
+            }
+
+            TemplateObject object = slots.objects.get(symbol.getSlot());
+
+            if (object == null) {
+                object = get((Key) symbol);
+                slots.objects.compareAndSet(symbol.getSlot(), null, object); // unless added meanwhile
+            }
+
+            return object;
+        }
+
+        @Override
+        final void add(final String key, final int hash, final TemplateObject value) {
+            super.add(key, hash, value);
+
+            final Slots slots = this.slots;
+
+            if (slots != null) {
+                final int slot = slots.symbolTable.slotOf(key);
+
+                if (slot != -1 && slot < slots.objects.length()) {
+                    slots.objects.set(slot, value);
+                }
+            }
+        }
+    }
+
+    private static final class Slots {
+        private final SymbolTable symbolTable;
+        private final AtomicReferenceArray<TemplateObject> objects;
+
+        private Slots(final SymbolTable symbolTable) {
+            this.symbolTable = symbolTable;
+            this.objects = new AtomicReferenceArray<>(symbolTable.size());
         }
     }
 }
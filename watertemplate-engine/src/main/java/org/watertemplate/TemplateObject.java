@@ -2,13 +2,34 @@ package org.watertemplate;
 
 import org.watertemplate.exception.InvalidTemplateObjectEvaluationException;
 
+import org.watertemplate.interpreter.parser.Renderer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public interface TemplateObject {
     String evaluate(final Locale locale);
 
+    /* Writes the evaluation to out. Sub templates render right into it. */
+    default void render(final Locale locale, final Appendable out) throws IOException {
+        out.append(evaluate(locale));
+    }
+
     class LocaleSensitive<T> implements TemplateObject {
         private final BiFunction<T, Locale, String> function;
         private final T object;
@@ -26,15 +47,28 @@ public interface TemplateObject {
 
     public final class Mapped<T> extends Mappable<T> implements TemplateObject {
         private final T object;
-        private final TemplateMap.Arguments mappedProperties;
+        private volatile TemplateMap.Arguments mappedProperties; // mapped when first looked into
 
         Mapped(final T object, final BiConsumer<T, TemplateMap.Arguments> mapper) {
             super(mapper);
             this.object = object;
-            this.mappedProperties = map(object);
         }
 
+        /* The mapper runs once, the first time, if ever: items only evaluated or never reached cost nothing. Threads
+         * looking into it at the same time, as loops in parallel and concurrent sub templates do, wait for the first. */
         public TemplateMap.Arguments map() {
+            TemplateMap.Arguments mappedProperties = this.mappedProperties;
+
+            if (mappedProperties == null) {
+                synchronized (this) {
+                    mappedProperties = this.mappedProperties;
+
+                    if (mappedProperties == null) {
+                        this.mappedProperties = mappedProperties = map(object);
+                    }
+                }
+            }
+
             return mappedProperties;
         }
 
@@ -50,28 +84,211 @@ public interface TemplateObject {
                                 "If you're iterating, make sure your collection contains only Strings.");
             }
         }
+
+        @Override
+        public void render(final Locale locale, final Appendable out) throws IOException {
+            if (object instanceof SubTemplate) {
+                ((SubTemplate) object).render(locale, out);
+            } else {
+                out.append(evaluate(locale));
+            }
+        }
     }
 
-    public final class Collection<T> extends Mappable<T> implements TemplateObject {
-        private final java.util.Collection<T> collection;
+    /* Looped over by for: an Iterable, or a stream or an iterator that can only be looped over once. */
+    public final class Collection<T> extends Mappable<T> implements TemplateObject, Iterable<T> {
+        private static final int CHUNKS_PER_THREAD = 4; // so that a thread done early takes on another chunk
+
+        private volatile Iterable<T> iterable;
+        private Stream<T> parallelStream; // collected into parallelItems, in parallel too, when first looked into
+        private volatile List<T> parallelItems;
+        private final boolean parallel;
 
-        public Collection(final java.util.Collection<T> collection, final BiConsumer<T, TemplateMap.Arguments> mapper) {
+        public Collection(final Iterable<T> iterable, final BiConsumer<T, TemplateMap.Arguments> mapper) {
             super(mapper);
-            this.collection = collection;
+            this.iterable = iterable;
+            this.parallel = false;
         }
 
+        /* A parallel stream makes a loop that renders its items in parallel. */
+        Collection(final Stream<T> stream, final BiConsumer<T, TemplateMap.Arguments> mapper) {
+            super(mapper);
+            this.parallel = stream != null && stream.isParallel();
+
+            if (parallel) {
+                this.parallelStream = stream;
+            } else {
+                this.iterable = once(stream == null ? null : stream.iterator());
+            }
+        }
+
+        static <T> Iterable<T> once(final Iterator<T> iterator) {
+            return iterator == null ? null : new Once<>(iterator);
+        }
+
+        public boolean isParallel() {
+            return parallel;
+        }
+
+        /* Other than collections, looks at the first item only. Loops call items() instead, so that nothing is read twice. */
         public Boolean isEmpty() {
-            return collection == null || !collection.iterator().hasNext();
+            final Iterable<T> iterable = iterable();
+
+            if (iterable == null) {
+                return true;
+            }
+
+            if (iterable instanceof java.util.Collection) {
+                return ((java.util.Collection<T>) iterable).isEmpty();
+            }
+
+            if (iterable instanceof Once) {
+                return !((Once<T>) iterable).hasNext();
+            }
+
+            return !iterable.iterator().hasNext();
         }
 
+        /* What a loop goes over, or null if there is nothing to: the iterator that was looked into is the one returned. */
+        public Iterator<T> items() {
+            final Iterable<T> iterable = iterable();
+
+            if (iterable == null) {
+                return null;
+            }
+
+            final Iterator<T> iterator = iterable.iterator();
+            return iterator.hasNext() ? iterator : null;
+        }
+
+        /* The items as a collection: streams and iterators are read into a list, which later loops go over. */
+        @Deprecated
         public java.util.Collection<T> getCollection() {
-            return collection;
+            final Iterable<T> iterable = iterable();
+
+            if (iterable == null || iterable instanceof java.util.Collection) {
+                return (java.util.Collection<T>) iterable;
+            }
+
+            synchronized (this) {
+                if (this.iterable == iterable) {
+                    final List<T> items = new ArrayList<>();
+                    iterable.forEach(items::add);
+                    this.iterable = items;
+                }
+
+                return (java.util.Collection<T>) this.iterable;
+            }
+        }
+
+        /*
+         * Renders the body of the loop for the items in chunks, each on a frame of its own and into a buffer of its own,
+         * on the fork join pool the render runs on or else the common one. The buffers are written to out in the order
+         * of the items. Chunks only add to their frames and sub templates render on frames of their own, so what the
+         * body reads is shared but never written. The first chunk to fail stops the others.
+         */
+        public void renderInParallel(final TemplateMap.Arguments arguments, final Key variable, final Renderer body,
+                                     final Locale locale, final Appendable out) throws IOException {
+            final List<T> items = parallelItems();
+            final int parallelism = (ForkJoinTask.inForkJoinPool() ? ForkJoinTask.getPool() : ForkJoinPool.commonPool()).getParallelism();
+            final int chunkSize = Math.max(1, items.size() / (parallelism * CHUNKS_PER_THREAD));
+            final List<ForkJoinTask<StringBuilder>> chunks = new ArrayList<>();
+            final AtomicBoolean failed = new AtomicBoolean();
+
+            for (int from = 0; from < items.size(); from += chunkSize) {
+                final List<T> chunk = items.subList(from, Math.min(items.size(), from + chunkSize));
+                chunks.add(ForkJoinTask.adapt(() -> render(chunk, arguments, variable, body, locale, failed)).fork());
+            }
+
+            try {
+                for (ForkJoinTask<StringBuilder> chunk : chunks) {
+                    out.append(chunk.join());
+                }
+            } catch (RuntimeException | IOException | Error e) {
+                failed.set(true);
+                chunks.forEach(chunk -> chunk.cancel(false)); // those not started yet
+                throw e;
+            }
+        }
+
+        private StringBuilder render(final List<T> chunk, final TemplateMap.Arguments arguments, final Key variable,
+                                     final Renderer body, final Locale locale, final AtomicBoolean failed) throws IOException {
+            final TemplateMap.Arguments frame = arguments.frame();
+            final StringBuilder sb = new StringBuilder();
+
+            try {
+                for (T item : chunk) {
+                    if (failed.get()) {
+                        break; // another chunk failed: what this one renders won't be written
+                    }
+
+                    frame.addMappedObject(variable, item, getMapper());
+                    body.render(frame, locale, sb);
+                }
+            } catch (RuntimeException | IOException | Error e) {
+                failed.set(true);
+                throw e;
+            }
+
+            return sb;
+        }
+
+        private Iterable<T> iterable() {
+            return parallel ? parallelItems() : iterable;
+        }
+
+        private List<T> parallelItems() {
+            List<T> parallelItems = this.parallelItems;
+
+            if (parallelItems == null) {
+                synchronized (this) {
+                    parallelItems = this.parallelItems;
+
+                    if (parallelItems == null) {
+                        this.parallelItems = parallelItems = parallelStream.collect(Collectors.toList());
+                        parallelStream = null;
+                    }
+                }
+            }
+
+            return parallelItems;
+        }
+
+        @Override
+        public Iterator<T> iterator() {
+            final Iterable<T> iterable = iterable();
+            return iterable == null ? Collections.emptyIterator() : iterable.iterator();
         }
 
         @Override
         public String evaluate(final Locale locale) {
             throw new InvalidTemplateObjectEvaluationException("Collections should not be evaluated");
         }
+
+        private static final class Once<T> implements Iterable<T> {
+            private Iterator<T> iterator;
+
+            private Once(final Iterator<T> iterator) {
+                this.iterator = iterator;
+            }
+
+            /* Looks into the iterator without taking it. */
+            private synchronized boolean hasNext() {
+                return iterator != null && iterator.hasNext();
+            }
+
+            @Override
+            public synchronized Iterator<T> iterator() {
+                final Iterator<T> iterator = this.iterator;
+
+                if (iterator == null) {
+                    throw new IllegalStateException("Streams and iterators can be looped over only once");
+                }
+
+                this.iterator = null;
+                return iterator;
+            }
+        }
     }
 
     public class Condition implements TemplateObject {
@@ -116,14 +333,104 @@ public interface TemplateObject {
             return subTemplate.render(locale);
         }
 
+        @Override
+        public void render(final Locale locale, final Appendable out) throws IOException {
+            subTemplate.render(locale, out);
+        }
+
         public static class WithoutMaster extends SubTemplate {
+            private final SubTemplate content; // of the sub template, when it is itself the master of another
+
             public WithoutMaster(Template subTemplate) {
+                this(subTemplate, null);
+            }
+
+            WithoutMaster(final Template subTemplate, final SubTemplate content) {
+                super(subTemplate);
+                this.content = content;
+            }
+
+            @Override
+            public String evaluate(final Locale locale) {
+                return subTemplate.renderWithoutMaster(content, locale);
+            }
+
+            @Override
+            public void render(final Locale locale, final Appendable out) throws IOException {
+                subTemplate.renderWithoutMaster(content, locale, out);
+            }
+        }
+
+        /* Rendered on an executor once started, its output waited for where its id is. */
+        public static class Concurrent extends SubTemplate {
+            private volatile FutureTask<String> rendered; // the id may be reached on another thread, as in a loop in parallel
+            private volatile boolean reached;
+
+            public Concurrent(final Template subTemplate) {
                 super(subTemplate);
             }
 
+            void start(final Locale locale, final Executor executor) {
+                final FutureTask<String> rendered = new FutureTask<>(() -> subTemplate.render(locale));
+                this.rendered = rendered;
+                executor.execute(rendered);
+            }
+
+            /* Interrupted if still rendering when the id wasn't reached. If it was done, what it failed with, if
+             * anything, is returned instead of lost. */
+            RuntimeException cancel() {
+                final FutureTask<String> rendered = this.rendered;
+                this.rendered = null;
+
+                if (rendered == null || reached || rendered.cancel(true)) {
+                    return null;
+                }
+
+                try {
+                    rendered.get();
+                    return null;
+                } catch (ExecutionException e) {
+                    return failure(e);
+                } catch (InterruptedException | CancellationException e) {
+                    return null; // never, it is done
+                }
+            }
+
             @Override
             public String evaluate(final Locale locale) {
-                return subTemplate.renderWithoutMaster(locale);
+                final FutureTask<String> rendered = this.rendered;
+
+                if (rendered == null) {
+                    return super.evaluate(locale);
+                }
+
+                reached = true;
+
+                try {
+                    return rendered.get();
+                } catch (ExecutionException e) {
+                    throw failure(e);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(e);
+                }
+            }
+
+            @Override
+            public void render(final Locale locale, final Appendable out) throws IOException {
+                if (rendered == null) {
+                    super.render(locale, out);
+                } else {
+                    out.append(evaluate(locale));
+                }
+            }
+
+            private static RuntimeException failure(final ExecutionException e) {
+                if (e.getCause() instanceof Error) {
+                    throw (Error) e.getCause();
+                }
+
+                return e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new RuntimeException(e.getCause());
             }
         }
     }
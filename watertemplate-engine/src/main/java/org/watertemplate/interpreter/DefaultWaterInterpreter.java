@@ -2,23 +2,58 @@ package org.watertemplate.interpreter;
 
 import org.watertemplate.TemplateMap;
 import org.watertemplate.interpreter.parser.AbstractSyntaxTree;
+import org.watertemplate.interpreter.parser.Renderer;
 
+import java.io.IOException;
 import java.util.Locale;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
 class DefaultWaterInterpreter extends WaterInterpreter {
 
-    private final static ConcurrentMap<String, AbstractSyntaxTree> cache = new ConcurrentHashMap<>();
+    private final static ConcurrentMap<String, Renderer> cache = new ConcurrentHashMap<>();
 
     public DefaultWaterInterpreter(final String templateFilePath, final Locale defaultLocale) {
         super(templateFilePath, defaultLocale);
     }
 
     @Override
-    public String string(final TemplateMap.Arguments arguments, final Locale locale) {
-        return cache.computeIfAbsent(cacheKey(locale), key ->
-                parse(lex(templateFileWith(locale)))).string(arguments, locale);
+    public void render(final TemplateMap.Arguments arguments, final Locale locale, final Appendable out) throws IOException {
+        renderer(locale).render(arguments, locale, out);
+    }
+
+    @Override
+    public Set<String> ids(final Locale locale) {
+        return renderer(locale).ids();
+    }
+
+    Renderer renderer(final Locale locale) {
+        return cache.computeIfAbsent(cacheKey(locale), key -> renderer(key, locale));
+    }
+
+    private Renderer renderer(final String key, final Locale locale) {
+        final Renderer precompiled = precompiledRendererWith(locale);
+
+        if (precompiled != null) {
+            return precompiled;
+        }
+
+        final AbstractSyntaxTree abstractSyntaxTree = loadTemplateFileWith(locale);
+        final Renderer renderer = backend.apply(key, abstractSyntaxTree);
+        final Set<String> ids = abstractSyntaxTree.ids();
+
+        return new Renderer() {
+            @Override
+            public void render(final TemplateMap.Arguments arguments, final Locale locale, final Appendable out) throws IOException {
+                renderer.render(arguments, locale, out);
+            }
+
+            @Override
+            public Set<String> ids() {
+                return ids;
+            }
+        };
     }
 
     private String cacheKey(final Locale locale) {
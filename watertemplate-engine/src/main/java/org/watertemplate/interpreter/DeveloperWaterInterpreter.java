@@ -1,18 +1,56 @@
 package org.watertemplate.interpreter;
 
 import org.watertemplate.TemplateMap;
-import org.watertemplate.interpreter.exception.TemplateFileNotFoundException;
+import org.watertemplate.interpreter.parser.AbstractSyntaxTree;
+import org.watertemplate.interpreter.parser.IncrementalParser;
 
-import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 class DeveloperWaterInterpreter extends WaterInterpreter {
+
+    private final static ConcurrentMap<String, IncrementalParser> parsers = new ConcurrentHashMap<>();
+
     public DeveloperWaterInterpreter(final String templateFilePath, final Locale defaultLocale) {
         super(templateFilePath, defaultLocale);
     }
 
     @Override
-    public String string(final TemplateMap.Arguments arguments, final Locale locale) {
-        return parse(lex(templateFileWith(locale))).string(arguments, locale);
+    public void render(final TemplateMap.Arguments arguments, final Locale locale, final Appendable out) throws IOException {
+        abstractSyntaxTree(locale).render(arguments, locale, out);
+    }
+
+    @Override
+    public Set<String> ids(final Locale locale) {
+        return abstractSyntaxTree(locale).ids();
+    }
+
+    /* Parsed again only where the template file changed since the last time. */
+    private AbstractSyntaxTree abstractSyntaxTree(final Locale locale) {
+        final IncrementalParser parser = parsers.computeIfAbsent(templateFilePath + locale, key -> new IncrementalParser());
+
+        synchronized (parser) {
+            return parser.parse(templateSourceWith(locale));
+        }
+    }
+
+    private String templateSourceWith(final Locale locale) {
+        try (final Reader reader = new InputStreamReader(templateFileWith(locale).openStream(), CHARSET)) {
+            final StringBuilder source = new StringBuilder();
+            final char[] buffer = new char[8192];
+
+            for (int nReadChars; (nReadChars = reader.read(buffer)) != -1; ) {
+                source.append(buffer, 0, nReadChars);
+            }
+
+            return source.toString();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
     }
 }
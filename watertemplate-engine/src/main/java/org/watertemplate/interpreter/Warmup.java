@@ -0,0 +1,134 @@
+package org.watertemplate.interpreter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/*
+ * Loads every template of every locale found under templates/ on the class path, in directories or jars, into the
+ * cache of DefaultWaterInterpreter, so that the first renders don't have to.
+ */
+final class Warmup {
+
+    private static final String TEMPLATES = "templates/";
+
+    private Warmup() {
+    }
+
+    static Map<String, Duration> warmUp(final ForkJoinPool pool) {
+        final Set<String> templateFiles = templateFiles(Warmup.class.getClassLoader());
+
+        try {
+            return pool.submit(() -> templateFiles.parallelStream()
+                    .collect(Collectors.toMap(templateFile -> templateFile, Warmup::load, (a, b) -> a, TreeMap::new))).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new RuntimeException(e.getCause());
+        }
+    }
+
+    /* Loads "<locale>/<path>", returns how long it took. */
+    private static Duration load(final String templateFile) {
+        final long start = System.nanoTime();
+        final int slash = templateFile.indexOf('/');
+        final Locale locale = locale(templateFile.substring(0, slash));
+
+        new DefaultWaterInterpreter(templateFile.substring(slash + 1), locale).renderer(locale);
+        return Duration.ofNanos(System.nanoTime() - start);
+    }
+
+    private static Locale locale(final String name) {
+        final String[] language_country = name.split("_", 3);
+
+        switch (language_country.length) {
+            case 1:
+                return new Locale(language_country[0]);
+            case 2:
+                return new Locale(language_country[0], language_country[1]);
+            default:
+                return new Locale(language_country[0], language_country[1], language_country[2]);
+        }
+    }
+
+    //
+
+    /* The "<locale>/<path>" of the template files, without serialized trees and directories not named by a locale. */
+    static Set<String> templateFiles(final ClassLoader classLoader) {
+        try {
+            final Set<String> templateFiles = new TreeSet<>();
+            final Enumeration<URL> roots = classLoader.getResources(TEMPLATES);
+
+            for (URL root : Collections.list(roots)) {
+                for (String file : root.getProtocol().equals("jar") ? jarFiles(root) : directoryFiles(root)) {
+                    if (isTemplateFile(file)) {
+                        templateFiles.add(file);
+                    }
+                }
+            }
+
+            return templateFiles;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static List<String> directoryFiles(final URL root) throws IOException {
+        final Path directory;
+
+        try {
+            directory = Paths.get(root.toURI());
+        } catch (URISyntaxException e) {
+            throw new IOException(e);
+        }
+
+        try (final Stream<Path> files = Files.walk(directory)) {
+            return files.filter(Files::isRegularFile)
+                    .map(file -> directory.relativize(file).toString().replace(file.getFileSystem().getSeparator(), "/"))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static List<String> jarFiles(final URL root) throws IOException {
+        final JarURLConnection connection = (JarURLConnection) root.openConnection();
+        connection.setUseCaches(false);
+
+        final String prefix = connection.getEntryName().endsWith("/") ? connection.getEntryName() : connection.getEntryName() + "/";
+
+        try (final JarFile jar = connection.getJarFile()) {
+            return jar.stream()
+                    .filter(entry -> !entry.isDirectory())
+                    .map(JarEntry::getName)
+                    .filter(name -> name.startsWith(prefix))
+                    .map(name -> name.substring(prefix.length()))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static boolean isTemplateFile(final String templateFile) {
+        final int slash = templateFile.indexOf('/');
+        return slash > 0 && !templateFile.endsWith(WaterInterpreter.SERIALIZED_EXTENSION)
+                && locale(templateFile.substring(0, slash)).toString().equals(templateFile.substring(0, slash));
+    }
+}
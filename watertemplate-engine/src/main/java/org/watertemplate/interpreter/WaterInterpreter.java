@@ -5,15 +5,32 @@ import org.watertemplate.interpreter.exception.TemplateFileNotFoundException;
 import org.watertemplate.interpreter.parser.AbstractSyntaxTree;
 import org.watertemplate.interpreter.parser.Lexer;
 import org.watertemplate.interpreter.parser.Parser;
-import org.watertemplate.interpreter.parser.Token;
+import org.watertemplate.interpreter.parser.Renderer;
+import org.watertemplate.interpreter.parser.TokenStream;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
-import java.util.List;
+import java.io.UncheckedIOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.BiFunction;
 
 public abstract class WaterInterpreter {
 
+    static final Charset CHARSET = StandardCharsets.UTF_8;
+
     protected final String templateFilePath;
     protected final Locale defaultLocale;
 
@@ -22,33 +39,146 @@ public abstract class WaterInterpreter {
         this.defaultLocale = defaultLocale;
     }
 
-    public abstract String string(final TemplateMap.Arguments arguments, final Locale locale);
+    public abstract void render(final TemplateMap.Arguments arguments, final Locale locale, final Appendable out) throws IOException;
+
+    /* The ids every render of the template evaluates or loops over, see AbstractSyntaxTree.ids, or null if they are not known. */
+    public abstract Set<String> ids(final Locale locale);
+
+    public String string(final TemplateMap.Arguments arguments, final Locale locale) {
+        final StringBuilder sb = new StringBuilder();
+
+        try {
+            render(arguments, locale, sb);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // a StringBuilder never throws it
+        }
+
+        return sb.toString();
+    }
+
+    /* The optimized tree of the template file: serialized next to it when up to date, see SERIALIZED_EXTENSION, or parsed. */
+    AbstractSyntaxTree loadTemplateFileWith(final Locale locale) {
+        final URL templateFile = templateFileWith(locale);
+        final AbstractSyntaxTree serialized = deserialize(templateFile);
+        return serialized != null ? serialized : parse(templateFile).optimize();
+    }
+
+    private AbstractSyntaxTree deserialize(final URL templateFile) {
+        try {
+            final URLConnection serialized = new URL(templateFile.toExternalForm() + SERIALIZED_EXTENSION).openConnection();
+            final long lastModified = serialized.getLastModified();
 
-    AbstractSyntaxTree parse(final List<Token> tokens) {
-        return new Parser().parse(tokens);
+            if (lastModified == 0 || lastModified < templateFile.openConnection().getLastModified()) {
+                return null;
+            }
+
+            try (final InputStream stream = serialized.getInputStream()) {
+                final ByteArrayOutputStream bytes = new ByteArrayOutputStream(Math.max(serialized.getContentLength(), 0));
+                final byte[] buffer = new byte[8192];
+
+                for (int read = stream.read(buffer); read != -1; read = stream.read(buffer)) {
+                    bytes.write(buffer, 0, read);
+                }
+
+                return AbstractSyntaxTree.deserialize(bytes.toByteArray());
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private AbstractSyntaxTree parse(final URL templateFile) {
+        try {
+            if (templateFile.getProtocol().equals("file")) {
+                try (final FileChannel channel = FileChannel.open(Paths.get(templateFile.toURI()))) {
+                    return parse(lex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())));
+                }
+            }
+
+            try (final InputStream stream = templateFile.openStream()) {
+                return parse(lex(stream));
+            }
+        } catch (IOException | URISyntaxException e) {
+            throw new RuntimeException(e);
+        }
     }
 
-    List<Token> lex(final InputStream stream) {
-        return new Lexer().lex(stream);
+    AbstractSyntaxTree parse(final TokenStream tokenStream) {
+        return new Parser().parse(tokenStream);
     }
 
-    InputStream templateFileWith(final Locale locale) {
+    TokenStream lex(final InputStream stream) {
+        return new Lexer().lex(stream, CHARSET);
+    }
+
+    TokenStream lex(final ByteBuffer bytes) {
+        return new Lexer().lex(bytes, CHARSET);
+    }
+
+    /* The renderer compiled ahead of time for the template, see precompiledClassName, or null if there is none. */
+    Renderer precompiledRendererWith(final Locale locale) {
+        try {
+            return Class.forName(precompiledClassName(templateFilePath, locale.toString()), true, getClass().getClassLoader())
+                    .asSubclass(Renderer.class).getDeclaredConstructor().newInstance();
+        } catch (ClassNotFoundException e) {
+            final boolean templateFileFound = getClass().getClassLoader().getResource("templates/" + locale + "/" + templateFilePath) != null;
+            return templateFileFound || locale.equals(defaultLocale) ? null : precompiledRendererWith(defaultLocale);
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    URL templateFileWith(final Locale locale) {
         final String templateFileURI = "templates/" + locale + "/" + templateFilePath;
-        InputStream stream = getClass().getClassLoader().getResourceAsStream(templateFileURI);
+        URL templateFile = getClass().getClassLoader().getResource(templateFileURI);
 
-        if (stream == null && !locale.equals(defaultLocale)) {
-            stream = templateFileWith(defaultLocale);
+        if (templateFile == null && !locale.equals(defaultLocale)) {
+            templateFile = templateFileWith(defaultLocale);
         }
 
-        if (stream == null) {
+        if (templateFile == null) {
             throw new TemplateFileNotFoundException(templateFilePath);
         }
 
-        return stream;
+        return templateFile;
     }
 
     //
 
+    /* Appended to the path of a template file for the path of its optimized tree, see AbstractSyntaxTree.serialize. */
+    public static final String SERIALIZED_EXTENSION = ".ast";
+
+    static final String PRECOMPILED_PACKAGE = "org.watertemplate.precompiled";
+
+    /* The class a template of a locale is compiled to ahead of time. Anything but letters and digits in the path is
+     * escaped, so that different paths never make the same name. */
+    public static String precompiledClassName(final String templateFilePath, final String locale) {
+        final String path = locale + "/" + templateFilePath;
+        final StringBuilder className = new StringBuilder(PRECOMPILED_PACKAGE).append(".Template_");
+
+        for (int i = 0; i < path.length(); i++) {
+            final char c = path.charAt(i);
+
+            if (c < 0x80 && Character.isLetterOrDigit(c)) {
+                className.append(c);
+            } else {
+                className.append(String.format("_%04x", (int) c));
+            }
+        }
+
+        return className.toString();
+    }
+
+    /* Loads every template of every locale under templates/ on the class path in parallel, so that no render has to
+     * parse one. Returns how long each took, by "<locale>/<path>". */
+    public static Map<String, Duration> warmUp() {
+        return warmUp(ForkJoinPool.commonPool());
+    }
+
+    public static Map<String, Duration> warmUp(final ForkJoinPool pool) {
+        return Warmup.warmUp(pool);
+    }
+
     public static WaterInterpreter instantiate(final String filePath, final Locale defaultLocale) {
         return interpreter.apply(filePath, defaultLocale);
     }
@@ -63,4 +193,21 @@ public abstract class WaterInterpreter {
 
     private static final BiFunction<String, Locale, WaterInterpreter> interpreter =
             System.getProperty("dev-mode") != null ? WaterInterpreter::newDeveloperInterpreter : WaterInterpreter::newDefaultInterpreter;
+
+    /* How cached templates run: compiled into closures, walking their tree with "-Dwater-backend=interpreter",
+     * or as classes generated at runtime with "-Dwater-backend=bytecode". */
+    static final BiFunction<String, AbstractSyntaxTree, Renderer> backend = backend(System.getProperty("water-backend", "closures"));
+
+    static BiFunction<String, AbstractSyntaxTree, Renderer> backend(final String name) {
+        switch (name) {
+            case "interpreter":
+                return (templateName, abstractSyntaxTree) -> abstractSyntaxTree::render;
+            case "closures":
+                return (templateName, abstractSyntaxTree) -> abstractSyntaxTree.compile();
+            case "bytecode":
+                return (templateName, abstractSyntaxTree) -> abstractSyntaxTree.generate(templateName);
+            default:
+                throw new IllegalArgumentException("Unknown backend " + name);
+        }
+    }
 }
@@ -1,10 +1,20 @@
 package org.watertemplate.interpreter.parser;
 
+import org.watertemplate.ByteSink;
+import org.watertemplate.Key;
 import org.watertemplate.TemplateObject;
 import org.watertemplate.interpreter.parser.exception.IdCouldNotBeResolvedException;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
+import java.util.Set;
 import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -16,11 +26,67 @@ public abstract class AbstractSyntaxTree {
 
     static final AbstractSyntaxTree EMPTY = new Empty();
 
-    public abstract String string(final Arguments arguments, final Locale locale);
+    /* Writes what the tree renders to out, every node directly, with no string in between. */
+    public abstract void render(final Arguments arguments, final Locale locale, final Appendable out) throws IOException;
+
+    public String string(final Arguments arguments, final Locale locale) {
+        final StringBuilder sb = new StringBuilder(staticSize());
+
+        try {
+            render(arguments, locale, sb);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // a StringBuilder never throws it
+        }
+
+        return sb.toString();
+    }
+
+    /* An equivalent tree with fewer, larger nodes, for trees that are rendered many times. */
+    public AbstractSyntaxTree optimize() {
+        return this;
+    }
+
+    /* Closures that render the same as this tree, see Renderer. */
+    public Renderer compile() {
+        return this::render;
+    }
+
+    /* A class generated to render the same as this tree, see Bytecode. The name shows in stack traces. */
+    public Renderer generate(final String name) {
+        return Bytecode.generate(name, this);
+    }
+
+    /* The source of a class with the given qualified name that renders the same as this tree, see JavaSource. */
+    public String javaSource(final String className) {
+        return JavaSource.generate(className, this);
+    }
+
+    /* The ids every render of the tree evaluates or loops over, whatever the arguments, see Ids. */
+    public Set<String> ids() {
+        return Ids.of(this);
+    }
+
+    /* The tree as bytes that deserialize() reads back without lexing or parsing, see Binary. */
+    public byte[] serialize() {
+        return Binary.write(this);
+    }
+
+    /* The tree serialized in the bytes, which fail if they are not what serialize() wrote in this version. */
+    public static AbstractSyntaxTree deserialize(final byte[] bytes) throws StreamCorruptedException {
+        return Binary.read(bytes);
+    }
+
+    abstract void emit(final Emitter emitter);
+
+    /* How many chars of text a render of this tree writes at least, whatever the arguments. */
+    int staticSize() {
+        return 0;
+    }
 
     static class For extends AbstractSyntaxTree {
 
         private final String variableName;
+        private final Key variable;
         private final Id collectionId;
         private final AbstractSyntaxTree forStatements;
         private final AbstractSyntaxTree elseStatements;
@@ -29,37 +95,91 @@ public abstract class AbstractSyntaxTree {
             this(variableName, collectionId, forStatements, EMPTY);
         }
 
+        public For(final String variableName, final Id collectionId, final AbstractSyntaxTree forStatements, final AbstractSyntaxTree elseStatements) {
+            this.variableName = variableName;
+            this.variable = Key.of(variableName);
+            this.collectionId = collectionId;
+            this.forStatements = forStatements;
+            this.elseStatements = elseStatements;
+        }
+
         @Override
-        public String string(final Arguments arguments, final Locale locale) {
+        public void render(final Arguments arguments, final Locale locale, final Appendable out) throws IOException {
             final TemplateObject.Collection collection = (TemplateObject.Collection) collectionId.templateObject(arguments);
 
-            if (collection.isEmpty()) {
-                return elseStatements.string(arguments, locale);
+            final Iterator items = collection.items();
+
+            if (items == null) {
+                elseStatements.render(arguments, locale, out);
+                return;
+            }
+
+            if (collection.isParallel()) {
+                collection.renderInParallel(arguments, variable, forStatements::render, locale, out);
+                return;
             }
 
-            final Arguments forArguments = new Arguments(arguments); // Mutable
+            final Arguments forArguments = arguments.frame();
             final BiConsumer mapper = collection.getMapper();
-            final StringBuilder sb = new StringBuilder();
 
-            for (final Object item : collection.getCollection()) {
-                forArguments.addMappedObject(variableName, item, mapper);
-                sb.append(forStatements.string(forArguments, locale));
+            while (items.hasNext()) {
+                forArguments.addMappedObject(variable, items.next(), mapper);
+                forStatements.render(forArguments, locale, out);
             }
+        }
 
-            return sb.toString();
+        @Override
+        public AbstractSyntaxTree optimize() {
+            return new For(variableName, collectionId, forStatements.optimize(), elseStatements.optimize());
         }
 
-        public For(final String variableName, final Id collectionId, final AbstractSyntaxTree forStatements, final AbstractSyntaxTree elseStatements) {
-            this.variableName = variableName;
-            this.collectionId = collectionId;
-            this.forStatements = forStatements;
-            this.elseStatements = elseStatements;
+        @Override
+        int staticSize() {
+            return Math.min(forStatements.staticSize(), elseStatements.staticSize());
+        }
+
+        @Override
+        public Renderer compile() {
+            final Key variable = this.variable;
+            final Id collectionId = this.collectionId;
+            final Renderer forStatements = this.forStatements.compile();
+            final Renderer elseStatements = this.elseStatements.compile();
+
+            return (arguments, locale, out) -> {
+                final TemplateObject.Collection collection = (TemplateObject.Collection) collectionId.templateObject(arguments);
+
+                final Iterator items = collection.items();
+
+                if (items == null) {
+                    elseStatements.render(arguments, locale, out);
+                    return;
+                }
+
+                if (collection.isParallel()) {
+                    collection.renderInParallel(arguments, variable, forStatements, locale, out);
+                    return;
+                }
+
+                final Arguments forArguments = arguments.frame();
+                final BiConsumer mapper = collection.getMapper();
+
+                while (items.hasNext()) {
+                    forArguments.addMappedObject(variable, items.next(), mapper);
+                    forStatements.render(forArguments, locale, out);
+                }
+            };
+        }
+
+        @Override
+        void emit(final Emitter emitter) {
+            emitter.loop(variableName, collectionId, forStatements, elseStatements);
         }
     }
 
     static class Id extends AbstractSyntaxTree {
 
         private final String propertyKey;
+        private final SymbolTable.Symbol symbol; // null for ids the parser didn't make, looked up by key
         private final Id nestedId;
 
         public Id(final String propertyKey) {
@@ -67,7 +187,20 @@ public abstract class AbstractSyntaxTree {
         }
 
         public Id(final String propertyKey, final Id nestedId) {
+            this(propertyKey, null, nestedId);
+        }
+
+        Id(final SymbolTable.Symbol symbol) {
+            this(symbol.getKey(), symbol, null);
+        }
+
+        Id(final Id id, final Id nestedId) {
+            this(id.propertyKey, id.symbol, nestedId);
+        }
+
+        private Id(final String propertyKey, final SymbolTable.Symbol symbol, final Id nestedId) {
             this.propertyKey = propertyKey;
+            this.symbol = symbol;
             this.nestedId = nestedId;
         }
 
@@ -75,7 +208,15 @@ public abstract class AbstractSyntaxTree {
             return propertyKey;
         }
 
-        private String getFullId() {
+        SymbolTable.Symbol getSymbol() {
+            return symbol;
+        }
+
+        Id getNestedId() {
+            return nestedId;
+        }
+
+        String getFullId() {
             if (nestedId == null) {
                 return propertyKey;
             }
@@ -84,7 +225,7 @@ public abstract class AbstractSyntaxTree {
         }
 
         TemplateObject templateObject(final Arguments arguments) {
-            TemplateObject object = arguments.get(propertyKey);
+            TemplateObject object = symbol == null ? arguments.get(propertyKey) : arguments.get(symbol);
 
             if (object == null) {
                 throw new IdCouldNotBeResolvedException(this.getFullId());
@@ -107,8 +248,33 @@ public abstract class AbstractSyntaxTree {
         }
 
         @Override
-        public String string(final Arguments arguments, final Locale locale) {
-            return this.templateObject(arguments).evaluate(locale);
+        public void render(final Arguments arguments, final Locale locale, final Appendable out) throws IOException {
+            this.templateObject(arguments).render(locale, out);
+        }
+
+        /* The common case, a single key the parser made a symbol of, is looked up directly. */
+        @Override
+        public Renderer compile() {
+            final SymbolTable.Symbol symbol = this.symbol;
+
+            if (symbol == null || nestedId != null) {
+                return this::render;
+            }
+
+            return (arguments, locale, out) -> {
+                final TemplateObject object = arguments.get(symbol);
+
+                if (object == null) {
+                    throw new IdCouldNotBeResolvedException(symbol.getKey());
+                }
+
+                object.render(locale, out);
+            };
+        }
+
+        @Override
+        void emit(final Emitter emitter) {
+            emitter.evaluate(this);
         }
     }
 
@@ -129,24 +295,58 @@ public abstract class AbstractSyntaxTree {
         }
 
         @Override
-        public String string(final Arguments arguments, final Locale locale) {
+        public void render(final Arguments arguments, final Locale locale, final Appendable out) throws IOException {
             TemplateObject.Condition condition = (TemplateObject.Condition) conditionId.templateObject(arguments);
 
             if (condition.isTrue()) {
-                return ifStatements.string(arguments, locale);
+                ifStatements.render(arguments, locale, out);
             } else {
-                return elseStatements.string(arguments, locale);
+                elseStatements.render(arguments, locale, out);
             }
         }
+
+        @Override
+        public AbstractSyntaxTree optimize() {
+            return new If(conditionId, ifStatements.optimize(), elseStatements.optimize());
+        }
+
+        @Override
+        int staticSize() {
+            return Math.min(ifStatements.staticSize(), elseStatements.staticSize());
+        }
+
+        @Override
+        public Renderer compile() {
+            final Id conditionId = this.conditionId;
+            final Renderer ifStatements = this.ifStatements.compile();
+            final Renderer elseStatements = this.elseStatements.compile();
+
+            return (arguments, locale, out) -> {
+                final TemplateObject.Condition condition = (TemplateObject.Condition) conditionId.templateObject(arguments);
+
+                if (condition.isTrue()) {
+                    ifStatements.render(arguments, locale, out);
+                } else {
+                    elseStatements.render(arguments, locale, out);
+                }
+            };
+        }
+
+        @Override
+        void emit(final Emitter emitter) {
+            emitter.branch(conditionId, ifStatements, elseStatements);
+        }
     }
 
     static class Statements extends AbstractSyntaxTree {
 
         private final List<AbstractSyntaxTree> abstractSyntaxTrees;
+        private final int staticSize;
 
         public Statements(final List<AbstractSyntaxTree> abstractSyntaxTrees) {
             this.abstractSyntaxTrees = abstractSyntaxTrees.stream()
                     .flatMap(this::flatten).collect(Collectors.toList());
+            this.staticSize = this.abstractSyntaxTrees.stream().mapToInt(AbstractSyntaxTree::staticSize).sum();
         }
 
         private Stream<AbstractSyntaxTree> flatten(final AbstractSyntaxTree ast) {
@@ -160,28 +360,165 @@ public abstract class AbstractSyntaxTree {
         }
 
         @Override
-        public String string(final Arguments arguments, final Locale locale) {
-            final StringBuilder sb = new StringBuilder();
-
+        public void render(final Arguments arguments, final Locale locale, final Appendable out) throws IOException {
             for (AbstractSyntaxTree ast : abstractSyntaxTrees) {
-                sb.append(ast.string(arguments, locale));
+                ast.render(arguments, locale, out);
+            }
+        }
+
+        /* Text split by the lexer is joined back, and statements with no or a single statement are no longer needed. */
+        @Override
+        public AbstractSyntaxTree optimize() {
+            final List<AbstractSyntaxTree> optimized = new ArrayList<>(abstractSyntaxTrees.size());
+            final List<Text> texts = new ArrayList<>();
+
+            for (AbstractSyntaxTree ast : new Statements(optimize(abstractSyntaxTrees)).abstractSyntaxTrees) {
+                if (ast instanceof Text) {
+                    texts.add((Text) ast);
+                    continue;
+                }
+
+                if (!texts.isEmpty()) {
+                    optimized.add(Text.join(texts));
+                    texts.clear();
+                }
+
+                optimized.add(ast);
+            }
+
+            if (!texts.isEmpty()) {
+                optimized.add(Text.join(texts));
             }
 
-            return sb.toString();
+            switch (optimized.size()) {
+                case 0:
+                    return EMPTY;
+                case 1:
+                    return optimized.get(0);
+                default:
+                    return new Statements(optimized);
+            }
+        }
+
+        private static List<AbstractSyntaxTree> optimize(final List<AbstractSyntaxTree> abstractSyntaxTrees) {
+            return abstractSyntaxTrees.stream().map(AbstractSyntaxTree::optimize).collect(Collectors.toList());
+        }
+
+        @Override
+        int staticSize() {
+            return staticSize;
+        }
+
+        /* Short sequences, the most common by far, are unrolled. */
+        @Override
+        public Renderer compile() {
+            final Renderer[] renderers = abstractSyntaxTrees.stream().map(AbstractSyntaxTree::compile).toArray(Renderer[]::new);
+
+            switch (renderers.length) {
+                case 0:
+                    return Renderer.EMPTY;
+                case 1:
+                    return renderers[0];
+                case 2: {
+                    final Renderer first = renderers[0], second = renderers[1];
+
+                    return (arguments, locale, out) -> {
+                        first.render(arguments, locale, out);
+                        second.render(arguments, locale, out);
+                    };
+                }
+                case 3: {
+                    final Renderer first = renderers[0], second = renderers[1], third = renderers[2];
+
+                    return (arguments, locale, out) -> {
+                        first.render(arguments, locale, out);
+                        second.render(arguments, locale, out);
+                        third.render(arguments, locale, out);
+                    };
+                }
+                default:
+                    return (arguments, locale, out) -> {
+                        for (final Renderer renderer : renderers) {
+                            renderer.render(arguments, locale, out);
+                        }
+                    };
+            }
+        }
+
+        @Override
+        void emit(final Emitter emitter) {
+            for (int i = 0; i < abstractSyntaxTrees.size(); i++) {
+                if (emitter.isFull()) {
+                    emitter.rest(abstractSyntaxTrees.subList(i, abstractSyntaxTrees.size()));
+                    return;
+                }
+
+                abstractSyntaxTrees.get(i).emit(emitter);
+            }
         }
     }
 
     static class Text extends AbstractSyntaxTree {
         private final String value;
+        private final byte[] bytes; // value encoded as UTF-8, so byte sinks can copy it as is
 
         public Text(final String value) {
+            this(value, value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        Text(final String value, final byte[] bytes) {
             this.value = value;
+            this.bytes = bytes;
+        }
+
+        /* Sinks of bytes get the UTF-8 encoding as is. */
+        @Override
+        public void render(final Arguments arguments, final Locale locale, final Appendable out) throws IOException {
+            ByteSink.appendTo(out, value, bytes);
         }
 
         @Override
         public String string(final Arguments arguments, final Locale locale) {
             return value;
         }
+
+        byte[] getBytes() {
+            return bytes;
+        }
+
+        @Override
+        int staticSize() {
+            return value.length();
+        }
+
+        @Override
+        public Renderer compile() {
+            final String value = this.value;
+            final byte[] bytes = this.bytes;
+
+            return (arguments, locale, out) -> ByteSink.appendTo(out, value, bytes);
+        }
+
+        @Override
+        void emit(final Emitter emitter) {
+            emitter.append(value);
+        }
+
+        private static Text join(final List<Text> texts) {
+            if (texts.size() == 1) {
+                return texts.get(0);
+            }
+
+            final StringBuilder value = new StringBuilder();
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+            for (Text text : texts) {
+                value.append(text.value);
+                bytes.write(text.bytes, 0, text.bytes.length);
+            }
+
+            return new Text(value.toString(), bytes.toByteArray());
+        }
     }
 
     private static class Empty extends AbstractSyntaxTree {
@@ -189,8 +526,16 @@ public abstract class AbstractSyntaxTree {
         }
 
         @Override
-        public String string(final Arguments arguments, final Locale locale) {
-            return "";
+        public void render(final Arguments arguments, final Locale locale, final Appendable out) {
+        }
+
+        @Override
+        public Renderer compile() {
+            return Renderer.EMPTY;
+        }
+
+        @Override
+        void emit(final Emitter emitter) {
         }
     }
 }
@@ -0,0 +1,253 @@
+package org.watertemplate.interpreter.parser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * A tree written as bytes, so that it is read back with no lexing or parsing: the magic number and version, a table of
+ * the strings of the tree in UTF-8, then its nodes in prefix order. A node is an opcode followed by indexes into the
+ * table and the blocks it contains, each block being a sequence of nodes closed by END.
+ */
+final class Binary implements Emitter {
+
+    private static final int MAGIC = 0x57415452; // "WATR"
+    private static final int VERSION = 1;
+
+    private static final int END = 0;
+    private static final int TEXT = 1;
+    private static final int ID = 2;
+    private static final int IF = 3;
+    private static final int FOR = 4;
+
+    private final Map<String, Integer> stringIndexes = new HashMap<>();
+    private final List<byte[]> strings = new ArrayList<>();
+    private final ByteArrayOutputStream nodes = new ByteArrayOutputStream();
+
+    private Binary() {
+    }
+
+    static byte[] write(final AbstractSyntaxTree abstractSyntaxTree) {
+        final Binary binary = new Binary();
+        binary.block(abstractSyntaxTree);
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(MAGIC >>> 24);
+        bytes.write(MAGIC >>> 16);
+        bytes.write(MAGIC >>> 8);
+        bytes.write(MAGIC);
+        bytes.write(VERSION);
+
+        varint(bytes, binary.strings.size());
+
+        for (byte[] string : binary.strings) {
+            varint(bytes, string.length);
+            bytes.write(string, 0, string.length);
+        }
+
+        final byte[] nodes = binary.nodes.toByteArray();
+        bytes.write(nodes, 0, nodes.length);
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public boolean isFull() {
+        return false;
+    }
+
+    @Override
+    public void append(final String text) {
+        nodes.write(TEXT);
+        string(text);
+    }
+
+    @Override
+    public void evaluate(final AbstractSyntaxTree.Id id) {
+        nodes.write(ID);
+        id(id);
+    }
+
+    @Override
+    public void branch(final AbstractSyntaxTree.Id conditionId, final AbstractSyntaxTree ifStatements, final AbstractSyntaxTree elseStatements) {
+        nodes.write(IF);
+        id(conditionId);
+        block(ifStatements);
+        block(elseStatements);
+    }
+
+    @Override
+    public void loop(final String variableName, final AbstractSyntaxTree.Id collectionId, final AbstractSyntaxTree forStatements, final AbstractSyntaxTree elseStatements) {
+        nodes.write(FOR);
+        string(variableName);
+        id(collectionId);
+        block(forStatements);
+        block(elseStatements);
+    }
+
+    @Override
+    public void rest(final List<AbstractSyntaxTree> statements) {
+        throw new IllegalStateException("Never full");
+    }
+
+    private void block(final AbstractSyntaxTree abstractSyntaxTree) {
+        abstractSyntaxTree.emit(this);
+        nodes.write(END);
+    }
+
+    private void id(final AbstractSyntaxTree.Id id) {
+        int depth = 0;
+
+        for (AbstractSyntaxTree.Id nested = id; nested != null; nested = nested.getNestedId()) {
+            depth++;
+        }
+
+        varint(nodes, depth);
+
+        for (AbstractSyntaxTree.Id nested = id; nested != null; nested = nested.getNestedId()) {
+            string(nested.getPropertyKey());
+        }
+    }
+
+    private void string(final String string) {
+        varint(nodes, stringIndexes.computeIfAbsent(string, s -> {
+            strings.add(s.getBytes(StandardCharsets.UTF_8));
+            return strings.size() - 1;
+        }));
+    }
+
+    private static void varint(final ByteArrayOutputStream bytes, int value) {
+        while ((value & ~0x7F) != 0) {
+            bytes.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+
+        bytes.write(value);
+    }
+
+    //
+
+    /* The tree written in the bytes, which fail as a whole if they were cut short, damaged or written in another version of the format. */
+    static AbstractSyntaxTree read(final byte[] bytes) throws StreamCorruptedException {
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+
+        if (bytes.length < 5 || buffer.getInt() != MAGIC || buffer.get() != VERSION) {
+            throw new StreamCorruptedException("Not a tree written in version " + VERSION + " of the format");
+        }
+
+        try {
+            final AbstractSyntaxTree abstractSyntaxTree = new Reader(buffer).block();
+
+            if (buffer.hasRemaining()) {
+                throw new IllegalArgumentException(buffer.remaining() + " bytes after the tree");
+            }
+
+            return abstractSyntaxTree;
+        } catch (RuntimeException e) { // underflows, indexes and lengths out of bounds, unknown opcodes
+            final StreamCorruptedException streamCorruptedException = new StreamCorruptedException("Malformed tree: " + e);
+            streamCorruptedException.initCause(e);
+            throw streamCorruptedException;
+        }
+    }
+
+    private static final class Reader {
+        private final ByteBuffer buffer;
+        private final SymbolTable symbolTable = new SymbolTable();
+        private final String[] strings;
+        private final byte[][] bytes;
+
+        private Reader(final ByteBuffer buffer) {
+            this.buffer = buffer;
+            this.strings = new String[length()];
+            this.bytes = new byte[strings.length][];
+
+            for (int i = 0; i < strings.length; i++) {
+                bytes[i] = new byte[length()];
+                buffer.get(bytes[i]);
+                strings[i] = new String(bytes[i], StandardCharsets.UTF_8);
+            }
+        }
+
+        private AbstractSyntaxTree block() {
+            final List<AbstractSyntaxTree> abstractSyntaxTrees = new ArrayList<>();
+
+            for (int opcode = buffer.get(); opcode != END; opcode = buffer.get()) {
+                abstractSyntaxTrees.add(node(opcode));
+            }
+
+            switch (abstractSyntaxTrees.size()) {
+                case 0:
+                    return AbstractSyntaxTree.EMPTY;
+                case 1:
+                    return abstractSyntaxTrees.get(0);
+                default:
+                    return new AbstractSyntaxTree.Statements(abstractSyntaxTrees);
+            }
+        }
+
+        private AbstractSyntaxTree node(final int opcode) {
+            switch (opcode) {
+                case TEXT: {
+                    final int index = varint();
+                    return new AbstractSyntaxTree.Text(strings[index], bytes[index]);
+                }
+                case ID:
+                    return id();
+                case IF:
+                    return new AbstractSyntaxTree.If(id(), block(), block());
+                case FOR:
+                    return new AbstractSyntaxTree.For(strings[varint()], id(), block(), block());
+                default:
+                    throw new IllegalArgumentException("Unknown opcode " + opcode);
+            }
+        }
+
+        private AbstractSyntaxTree.Id id() {
+            final AbstractSyntaxTree.Id[] ids = new AbstractSyntaxTree.Id[varint()];
+
+            if (ids.length == 0) {
+                throw new IllegalArgumentException("Id with no property");
+            }
+
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = new AbstractSyntaxTree.Id(symbolTable.symbol(strings[varint()]));
+            }
+
+            AbstractSyntaxTree.Id id = ids[ids.length - 1];
+
+            for (int i = ids.length - 2; i >= 0; i--) {
+                id = new AbstractSyntaxTree.Id(ids[i], id);
+            }
+
+            return id;
+        }
+
+        /* A count of what follows, which can't be more than the bytes left since each takes one at least. */
+        private int length() {
+            final int length = varint();
+
+            if (length < 0 || length > buffer.remaining()) {
+                throw new IllegalArgumentException("Length " + length + " with " + buffer.remaining() + " bytes left");
+            }
+
+            return length;
+        }
+
+        private int varint() {
+            int value = 0;
+
+            for (int shift = 0; ; shift += 7) {
+                final byte b = buffer.get();
+                value |= (b & 0x7F) << shift;
+
+                if (b >= 0) {
+                    return value;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,521 @@
+package org.watertemplate.interpreter.parser;
+
+import org.watertemplate.ByteSink;
+import org.watertemplate.Key;
+import org.watertemplate.TemplateMap;
+import org.watertemplate.TemplateObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/*
+ * Generates a class that renders a tree: text becomes constant appends, ifs and fors become branches and loops, and ids
+ * are looked up right there. The class file is written by hand, in version 49 so it needs no stack map frames.
+ *
+ * Anything that doesn't fit in a method whose jumps all take 16 bits is rendered by the closures of compile() instead.
+ */
+final class Bytecode implements Emitter {
+
+    private static final int LIMIT = 24 * 1024; // past it, the rest of a sequence is left to closures
+    private static final int MAX_CODE = Short.MAX_VALUE;
+    private static final int MAX_LOCALS = 256;
+
+    private static final String OBJECT = "java/lang/Object";
+    private static final String APPENDABLE = "java/lang/Appendable";
+    private static final String RENDERER = type(Renderer.class);
+    private static final String ARGUMENTS = type(TemplateMap.Arguments.class);
+    private static final String TEMPLATE_OBJECT = type(TemplateObject.class);
+    private static final String SYMBOL = type(SymbolTable.Symbol.class);
+    private static final String KEY = type(Key.class);
+    private static final String BYTE_SINK = type(ByteSink.class);
+    private static final String MAPPED = type(TemplateObject.Mapped.class);
+    private static final String CONDITION = type(TemplateObject.Condition.class);
+    private static final String COLLECTION = type(TemplateObject.Collection.class);
+    private static final String ID_COULD_NOT_BE_RESOLVED = "org/watertemplate/interpreter/parser/exception/IdCouldNotBeResolvedException";
+
+    // Locals of render
+    private static final int THIS = 0;
+    private static final int LOCALE = 2;
+    private static final int OUT = 3;
+    private static final int OBJECT_FOUND = 4;
+
+    private final String className;
+
+    private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+    private final DataOutputStream pool = new DataOutputStream(poolBytes);
+    private final Map<String, Integer> poolIndexes = new HashMap<>();
+    private int poolCount = 1;
+
+    private final List<Object> constants = new ArrayList<>(); // loaded from the constants field, for what ldc can't
+
+    private byte[] code = new byte[256];
+    private int length;
+    private int arguments = 1;
+    private int locals = OBJECT_FOUND + 1;
+
+    private Bytecode(final String className) {
+        this.className = className;
+    }
+
+    static Renderer generate(final String name, final AbstractSyntaxTree abstractSyntaxTree) {
+        final Bytecode bytecode = new Bytecode("WaterTemplate$" + name.replaceAll("[^A-Za-z0-9_$]", "_"));
+
+        try {
+            abstractSyntaxTree.emit(bytecode);
+            return bytecode.load();
+        } catch (IllegalStateException e) {
+            return abstractSyntaxTree.compile();
+        }
+    }
+
+    @Override
+    public boolean isFull() {
+        return length > LIMIT;
+    }
+
+    //
+
+    /* Byte sinks get the text encoded once, here, rather than on every render. */
+    @Override
+    public void append(final String text) {
+        // A constant takes at most 65535 bytes of modified UTF-8, three per char at worst
+        for (int i = 0, end; i < text.length(); i = end) {
+            end = Math.min(text.length(), i + 0x3FFF);
+
+            if (end < text.length() && Character.isHighSurrogate(text.charAt(end - 1))) {
+                end--; // so that each part encodes on its own
+            }
+
+            final String part = text.substring(i, end);
+            aload(OUT);
+            ldc(string(part));
+            constant(part.getBytes(StandardCharsets.UTF_8), "[B");
+            invoke(0xb8, BYTE_SINK, "appendTo", "(L" + APPENDABLE + ";Ljava/lang/String;[B)V");
+        }
+    }
+
+    @Override
+    public void evaluate(final AbstractSyntaxTree.Id id) {
+        templateObject(id);
+        aload(LOCALE);
+        aload(OUT);
+        invoke(0xb9, TEMPLATE_OBJECT, "render", "(Ljava/util/Locale;L" + APPENDABLE + ";)V");
+    }
+
+    @Override
+    public void branch(final AbstractSyntaxTree.Id conditionId, final AbstractSyntaxTree ifStatements, final AbstractSyntaxTree elseStatements) {
+        templateObject(conditionId);
+        type(0xc0, CONDITION);
+        invoke(0xb6, CONDITION, "isTrue", "()Ljava/lang/Boolean;");
+        invoke(0xb6, "java/lang/Boolean", "booleanValue", "()Z");
+        final int toElse = jump(0x99);
+
+        ifStatements.emit(this);
+        final int toEnd = jump(0xa7);
+
+        land(toElse);
+        elseStatements.emit(this);
+        land(toEnd);
+    }
+
+    @Override
+    public void loop(final String variableName, final AbstractSyntaxTree.Id collectionId, final AbstractSyntaxTree forStatements, final AbstractSyntaxTree elseStatements) {
+        final int collection = local(), forArguments = local(), mapper = local(), iterator = local();
+
+        templateObject(collectionId);
+        type(0xc0, COLLECTION);
+        astore(collection);
+
+        aload(collection);
+        invoke(0xb6, COLLECTION, "items", "()Ljava/util/Iterator;");
+        astore(iterator);
+
+        aload(iterator);
+        final int toLoop = jump(0xc7); // ifnonnull
+
+        elseStatements.emit(this);
+        final int toEnd = jump(0xa7);
+
+        land(toLoop);
+        aload(collection);
+        invoke(0xb6, COLLECTION, "isParallel", "()Z");
+        final int toSequential = jump(0x99);
+
+        aload(collection);
+        aload(arguments);
+        constant(Key.of(variableName), KEY);
+        constant(forStatements.compile(), RENDERER);
+        aload(LOCALE);
+        aload(OUT);
+        invoke(0xb6, COLLECTION, "renderInParallel", "(L" + ARGUMENTS + ";L" + KEY + ";L" + RENDERER + ";Ljava/util/Locale;L" + APPENDABLE + ";)V");
+        final int toParallelEnd = jump(0xa7);
+
+        land(toSequential);
+        aload(arguments);
+        invoke(0xb6, ARGUMENTS, "frame", "()L" + ARGUMENTS + ";");
+        astore(forArguments);
+
+        aload(collection);
+        invoke(0xb6, COLLECTION, "getMapper", "()Ljava/util/function/BiConsumer;");
+        astore(mapper);
+
+        final int next = length;
+        aload(iterator);
+        invoke(0xb9, "java/util/Iterator", "hasNext", "()Z");
+        final int toDone = jump(0x99);
+
+        aload(forArguments);
+        constant(Key.of(variableName), KEY);
+        aload(iterator);
+        invoke(0xb9, "java/util/Iterator", "next", "()Ljava/lang/Object;");
+        aload(mapper);
+        invoke(0xb6, ARGUMENTS, "addMappedObject", "(L" + KEY + ";Ljava/lang/Object;Ljava/util/function/BiConsumer;)V");
+
+        final int outerArguments = arguments;
+        arguments = forArguments;
+        forStatements.emit(this);
+        arguments = outerArguments;
+
+        op(0xa7);
+        u2(next - (length - 1));
+
+        land(toDone);
+        land(toParallelEnd);
+        land(toEnd);
+    }
+
+    @Override
+    public void rest(final List<AbstractSyntaxTree> statements) {
+        render(new AbstractSyntaxTree.Statements(statements).compile());
+    }
+
+    private void render(final Renderer renderer) {
+        constant(renderer, RENDERER);
+        aload(arguments);
+        aload(LOCALE);
+        aload(OUT);
+        invoke(0xb9, RENDERER, "render", "(L" + ARGUMENTS + ";Ljava/util/Locale;L" + APPENDABLE + ";)V");
+    }
+
+    //
+
+    /* Leaves the template object of the id on the stack, following mapped objects key by key. */
+    private void templateObject(final AbstractSyntaxTree.Id id) {
+        for (AbstractSyntaxTree.Id nested = id; nested != null; nested = nested.getNestedId()) {
+            if (nested.getSymbol() == null) {
+                final Function<TemplateMap.Arguments, TemplateObject> resolver = id::templateObject;
+                constant(resolver, "java/util/function/Function");
+                aload(arguments);
+                invoke(0xb9, "java/util/function/Function", "apply", "(Ljava/lang/Object;)Ljava/lang/Object;");
+                type(0xc0, TEMPLATE_OBJECT);
+                return;
+            }
+        }
+
+        aload(arguments);
+
+        for (AbstractSyntaxTree.Id nested = id; nested != null; nested = nested.getNestedId()) {
+            constant(nested.getSymbol(), SYMBOL);
+            invoke(0xb6, ARGUMENTS, "get", "(L" + SYMBOL + ";)L" + TEMPLATE_OBJECT + ";");
+            astore(OBJECT_FOUND);
+
+            aload(OBJECT_FOUND);
+            final int toFound = jump(0xc7); // ifnonnull
+            couldNotResolve(id);
+            land(toFound);
+
+            aload(OBJECT_FOUND);
+
+            if (nested.getNestedId() != null) {
+                type(0xc1, MAPPED); // instanceof
+                final int toMapped = jump(0x9a);
+                couldNotResolve(id);
+                land(toMapped);
+
+                aload(OBJECT_FOUND);
+                type(0xc0, MAPPED);
+                invoke(0xb6, MAPPED, "map", "()L" + ARGUMENTS + ";");
+            }
+        }
+    }
+
+    private void couldNotResolve(final AbstractSyntaxTree.Id id) {
+        type(0xbb, ID_COULD_NOT_BE_RESOLVED);
+        op(0x59);
+        ldc(string(id.getFullId()));
+        invoke(0xb7, ID_COULD_NOT_BE_RESOLVED, "<init>", "(Ljava/lang/String;)V");
+        op(0xbf); // athrow
+    }
+
+    private void constant(final Object constant, final String type) {
+        if (constants.size() > Short.MAX_VALUE) {
+            throw new IllegalStateException("Too many constants");
+        }
+
+        aload(THIS);
+        op(0xb4); // getfield
+        u2(field(className, "constants", "[Ljava/lang/Object;"));
+        op(0x11); // sipush
+        u2(constants.size());
+        op(0x32); // aaload
+        type(0xc0, type);
+        constants.add(constant);
+    }
+
+    private int local() {
+        if (locals == MAX_LOCALS) {
+            throw new IllegalStateException("Too many locals");
+        }
+
+        return locals++;
+    }
+
+    //
+
+    private void aload(final int local) {
+        op(0x19);
+        op(local);
+    }
+
+    private void astore(final int local) {
+        op(0x3a);
+        op(local);
+    }
+
+    private void ldc(final int index) {
+        op(0x13); // ldc_w
+        u2(index);
+    }
+
+    private void type(final int opcode, final String type) {
+        op(opcode);
+        u2(classRef(type));
+    }
+
+    private void invoke(final int opcode, final String owner, final String name, final String descriptor) {
+        op(opcode);
+
+        if (opcode == 0xb9) {
+            u2(member(11, owner, name, descriptor));
+            op(1 + argumentsSize(descriptor));
+            op(0);
+        } else {
+            u2(member(10, owner, name, descriptor));
+        }
+    }
+
+    private int jump(final int opcode) {
+        op(opcode);
+        u2(0);
+        return length - 3;
+    }
+
+    private void land(final int jump) {
+        final int offset = length - jump;
+        code[jump + 1] = (byte) (offset >> 8);
+        code[jump + 2] = (byte) offset;
+    }
+
+    private void op(final int b) {
+        if (length == code.length) {
+            code = Arrays.copyOf(code, length * 2);
+        }
+
+        code[length++] = (byte) b;
+    }
+
+    private void u2(final int s) {
+        op(s >> 8);
+        op(s);
+    }
+
+    /* Only references and no long or double ever get passed. */
+    private static int argumentsSize(final String descriptor) {
+        int size = 0;
+
+        for (int i = 1; descriptor.charAt(i) != ')'; i++, size++) {
+            while (descriptor.charAt(i) == '[') {
+                i++;
+            }
+
+            if (descriptor.charAt(i) == 'L') {
+                i = descriptor.indexOf(';', i);
+            }
+        }
+
+        return size;
+    }
+
+    //
+
+    private int utf8(final String value) {
+        return constant("U" + value, () -> {
+            pool.writeByte(1);
+            pool.writeUTF(value);
+        });
+    }
+
+    private int string(final String value) {
+        final int utf8 = utf8(value);
+        return constant("S" + value, () -> {
+            pool.writeByte(8);
+            pool.writeShort(utf8);
+        });
+    }
+
+    private int classRef(final String type) {
+        final int name = utf8(type);
+        return constant("C" + type, () -> {
+            pool.writeByte(7);
+            pool.writeShort(name);
+        });
+    }
+
+    private int field(final String owner, final String name, final String descriptor) {
+        return member(9, owner, name, descriptor);
+    }
+
+    private int member(final int tag, final String owner, final String name, final String descriptor) {
+        final int ownerIndex = classRef(owner);
+        final int nameIndex = utf8(name);
+        final int descriptorIndex = utf8(descriptor);
+        final int nameAndType = constant("N" + name + " " + descriptor, () -> {
+            pool.writeByte(12);
+            pool.writeShort(nameIndex);
+            pool.writeShort(descriptorIndex);
+        });
+
+        return constant(tag + owner + "." + name + descriptor, () -> {
+            pool.writeByte(tag);
+            pool.writeShort(ownerIndex);
+            pool.writeShort(nameAndType);
+        });
+    }
+
+    private int constant(final String key, final PoolEntry entry) {
+        final Integer index = poolIndexes.get(key);
+
+        if (index != null) {
+            return index;
+        }
+
+        if (poolCount == 0xFFFF) {
+            throw new IllegalStateException("Too many constants");
+        }
+
+        try {
+            entry.write();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+
+        poolIndexes.put(key, poolCount);
+        return poolCount++;
+    }
+
+    private interface PoolEntry {
+        void write() throws IOException;
+    }
+
+    //
+
+    private Renderer load() {
+        op(0xb1); // return
+
+        if (length > MAX_CODE) {
+            throw new IllegalStateException("Method too large");
+        }
+
+        final int thisClass = classRef(className);
+        final int superClass = classRef(OBJECT);
+        final int renderer = classRef(RENDERER);
+        final int constantsName = utf8("constants");
+        final int constantsDescriptor = utf8("[Ljava/lang/Object;");
+        final int constantsField = field(className, "constants", "[Ljava/lang/Object;");
+        final int objectInit = member(10, OBJECT, "<init>", "()V");
+        final int init = utf8("<init>");
+        final int initDescriptor = utf8("([Ljava/lang/Object;)V");
+        final int render = utf8("render");
+        final int renderDescriptor = utf8("(L" + ARGUMENTS + ";Ljava/util/Locale;L" + APPENDABLE + ";)V");
+        final int codeAttribute = utf8("Code");
+
+        final ByteArrayOutputStream classBytes = new ByteArrayOutputStream();
+
+        try (final DataOutputStream out = new DataOutputStream(classBytes)) {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(49);
+            out.writeShort(poolCount);
+            poolBytes.writeTo(out);
+
+            out.writeShort(0x0001 | 0x0010 | 0x0020); // public final super
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(1);
+            out.writeShort(renderer);
+
+            out.writeShort(1);
+            out.writeShort(0x0002 | 0x0010); // private final
+            out.writeShort(constantsName);
+            out.writeShort(constantsDescriptor);
+            out.writeShort(0);
+
+            out.writeShort(2);
+
+            final byte[] constructor = {
+                    0x2a, (byte) 0xb7, (byte) (objectInit >> 8), (byte) objectInit, // super()
+                    0x2a, 0x2b, (byte) 0xb5, (byte) (constantsField >> 8), (byte) constantsField, // this.constants = constants
+                    (byte) 0xb1
+            };
+
+            method(out, 0x0001, init, initDescriptor, codeAttribute, 2, 2, constructor, constructor.length);
+            method(out, 0x0001, render, renderDescriptor, codeAttribute, 8, locals, code, length);
+
+            out.writeShort(0);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+
+        final byte[] bytes = classBytes.toByteArray();
+        final Class<?> generated = new ClassLoader(Renderer.class.getClassLoader()) {
+            Class<?> define() {
+                return defineClass(className, bytes, 0, bytes.length);
+            }
+        }.define();
+
+        try {
+            return (Renderer) generated.getConstructor(Object[].class).newInstance((Object) constants.toArray());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void method(final DataOutputStream out, final int access, final int name, final int descriptor, final int codeAttribute,
+                               final int maxStack, final int maxLocals, final byte[] code, final int length) throws IOException {
+        out.writeShort(access);
+        out.writeShort(name);
+        out.writeShort(descriptor);
+        out.writeShort(1);
+
+        out.writeShort(codeAttribute);
+        out.writeInt(12 + length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(length);
+        out.write(code, 0, length);
+        out.writeShort(0); // exception table
+        out.writeShort(0); // attributes
+    }
+
+    private static String type(final Class<?> type) {
+        return type.getName().replace('.', '/');
+    }
+}
@@ -0,0 +1,21 @@
+package org.watertemplate.interpreter.parser;
+
+import java.util.List;
+
+/* Where a tree writes the code that renders it, one node at a time: see Bytecode and JavaSource. */
+interface Emitter {
+
+    /* Whether the code so far is large enough that the rest of a sequence should go elsewhere. */
+    boolean isFull();
+
+    void append(final String text);
+
+    void evaluate(final AbstractSyntaxTree.Id id);
+
+    void branch(final AbstractSyntaxTree.Id conditionId, final AbstractSyntaxTree ifStatements, final AbstractSyntaxTree elseStatements);
+
+    void loop(final String variableName, final AbstractSyntaxTree.Id collectionId, final AbstractSyntaxTree forStatements, final AbstractSyntaxTree elseStatements);
+
+    /* The rest of a sequence, once full. */
+    void rest(final List<AbstractSyntaxTree> statements);
+}
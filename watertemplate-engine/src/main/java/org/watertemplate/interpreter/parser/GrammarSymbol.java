@@ -1,5 +1,28 @@
 package org.watertemplate.interpreter.parser;
 
 interface GrammarSymbol {
-    AbstractSyntaxTree buildAbstractSyntaxTree(TokenStream tokenStream);
-}
\ No newline at end of file
+
+    /* The tree of what comes next, or null if it doesn't match: the token stream then knows what was expected where. */
+    AbstractSyntaxTree parse(TokenStream tokenStream);
+
+    default AbstractSyntaxTree buildAbstractSyntaxTree(final TokenStream tokenStream) {
+        final AbstractSyntaxTree abstractSyntaxTree = parse(tokenStream);
+
+        if (abstractSyntaxTree == null) {
+            throw tokenStream.failure();
+        }
+
+        return abstractSyntaxTree;
+    }
+
+    /* Whether this symbol matches whatever comes next, possibly with no tokens at all. */
+    default boolean neverFails() {
+        return false;
+    }
+
+    /* The terminals a match can start with. */
+    int firstSet();
+
+    /* The terminal reported as expected when the next token is not in the first set. */
+    Terminal leading();
+}
@@ -0,0 +1,51 @@
+package org.watertemplate.interpreter.parser;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/* The ids every render of a tree evaluates or loops over, whatever the arguments, by the key looked up in the arguments
+ * of the template: those in the branches of an if or in the body of a loop are left out, since a render may not reach
+ * them. */
+final class Ids implements Emitter {
+
+    private final Set<String> ids = new HashSet<>();
+
+    private Ids() {
+    }
+
+    static Set<String> of(final AbstractSyntaxTree abstractSyntaxTree) {
+        final Ids ids = new Ids();
+        abstractSyntaxTree.emit(ids);
+        return Collections.unmodifiableSet(ids.ids);
+    }
+
+    @Override
+    public boolean isFull() {
+        return false;
+    }
+
+    @Override
+    public void append(final String text) {
+    }
+
+    @Override
+    public void evaluate(final AbstractSyntaxTree.Id id) {
+        ids.add(id.getPropertyKey());
+    }
+
+    @Override
+    public void branch(final AbstractSyntaxTree.Id conditionId, final AbstractSyntaxTree ifStatements, final AbstractSyntaxTree elseStatements) {
+    }
+
+    @Override
+    public void loop(final String variableName, final AbstractSyntaxTree.Id collectionId, final AbstractSyntaxTree forStatements, final AbstractSyntaxTree elseStatements) {
+        ids.add(collectionId.getPropertyKey());
+    }
+
+    @Override
+    public void rest(final List<AbstractSyntaxTree> statements) {
+        throw new IllegalStateException("Never full");
+    }
+}
@@ -0,0 +1,176 @@
+package org.watertemplate.interpreter.parser;
+
+import java.io.CharArrayReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * Parses successive versions of the same template, redoing only what the edit in between could have changed.
+ *
+ * A token is kept as long as neither its characters nor the one right after it (which is what ended it) changed.
+ * Lexing restarts at the first token that wasn't and stops as soon as a new token starts where an old one did past
+ * the edit: from there on the lexer sees the same characters, so it makes the same tokens. A template is a sequence of
+ * top level statements, and each of them is kept as long as none of the tokens its parse looked at changed.
+ */
+public class IncrementalParser {
+
+    private char[] source = {'\0'}; // the template and a '\0', where the end of input token points
+    private int[] tokens = {0, 1, Terminal.setOf(Terminal.END_OF_INPUT)};
+    private int size = 1;
+
+    // Top level statements: the token each one starts at, the furthest token its parse looked at, and its tree
+    private int[] starts = new int[0];
+    private int[] furthest = new int[0];
+    private List<AbstractSyntaxTree> statements = new ArrayList<>();
+    private int end; // the token after the last statement
+
+    private AbstractSyntaxTree abstractSyntaxTree;
+    private final SymbolTable symbolTable = new SymbolTable(); // kept statements and new ones share it
+
+    public AbstractSyntaxTree parse(final String template) {
+        final char[] source = Arrays.copyOf(template.toCharArray(), template.length() + 1);
+
+        if (abstractSyntaxTree != null && Arrays.equals(source, this.source)) {
+            return abstractSyntaxTree;
+        }
+
+        // The edit replaced [prefix, length - suffix) of the old source with [prefix, source.length - suffix)
+        final int common = Math.min(this.source.length, source.length) - 1;
+        final int shift = source.length - this.source.length;
+
+        int prefix = 0;
+        while (prefix < common && source[prefix] == this.source[prefix]) {
+            prefix++;
+        }
+
+        int suffix = 1;
+        while (suffix <= common - prefix && source[source.length - 1 - suffix] == this.source[this.source.length - 1 - suffix]) {
+            suffix++;
+        }
+
+        //
+
+        int kept = 0;
+        while (tokens[kept * TokenStream.TOKEN_SIZE + TokenStream.START] + tokens[kept * TokenStream.TOKEN_SIZE + TokenStream.LENGTH] < prefix) {
+            kept++;
+        }
+
+        // Where the last kept token ends: trailing blanks make no token, so the next one may start further
+        final int from = kept == 0 ? 0 : tokens[(kept - 1) * TokenStream.TOKEN_SIZE + TokenStream.START] + tokens[(kept - 1) * TokenStream.TOKEN_SIZE + TokenStream.LENGTH];
+        final Lexer lexer = new Lexer();
+        lexer.lex(new CharArrayReader(source, from, source.length - 1 - from));
+
+        int[] tokens = Arrays.copyOf(this.tokens, kept * TokenStream.TOKEN_SIZE + this.tokens.length);
+        int size = kept;
+        int resynchronized = this.size;
+
+        for (int i = 0; lexer.has(i, i); i++) {
+            final int start = from + lexer.start(i);
+
+            final int old = start >= source.length - suffix ? tokenStartingAt(start - shift) : -1;
+
+            if (old != -1) {
+                resynchronized = old;
+                break;
+            }
+
+            if (size * TokenStream.TOKEN_SIZE == tokens.length) {
+                tokens = Arrays.copyOf(tokens, tokens.length * 2);
+            }
+
+            tokens[size * TokenStream.TOKEN_SIZE + TokenStream.START] = start;
+            tokens[size * TokenStream.TOKEN_SIZE + TokenStream.LENGTH] = lexer.length(i);
+            tokens[size * TokenStream.TOKEN_SIZE + TokenStream.TERMINALS] = lexer.terminalSet(i);
+            size++;
+        }
+
+        final int tokenShift = size - resynchronized;
+        tokens = Arrays.copyOf(tokens, (size + this.size - resynchronized) * TokenStream.TOKEN_SIZE);
+
+        for (int i = resynchronized; i < this.size; i++, size++) {
+            tokens[size * TokenStream.TOKEN_SIZE + TokenStream.START] = this.tokens[i * TokenStream.TOKEN_SIZE + TokenStream.START] + shift;
+            tokens[size * TokenStream.TOKEN_SIZE + TokenStream.LENGTH] = this.tokens[i * TokenStream.TOKEN_SIZE + TokenStream.LENGTH];
+            tokens[size * TokenStream.TOKEN_SIZE + TokenStream.TERMINALS] = this.tokens[i * TokenStream.TOKEN_SIZE + TokenStream.TERMINALS];
+        }
+
+        //
+
+        final TokenStream tokenStream = new TokenStream(new Lexer(source, tokens, size), symbolTable);
+        final int[] starts = new int[this.starts.length + size];
+        final int[] furthest = new int[this.starts.length + size];
+        final List<AbstractSyntaxTree> statements = new ArrayList<>();
+
+        int n = 0;
+        while (n < this.starts.length && this.furthest[n] < kept) {
+            starts[n] = this.starts[n];
+            furthest[n] = this.furthest[n];
+            statements.add(this.statements.get(n++));
+        }
+
+        int position = n < this.starts.length ? this.starts[n] : this.end;
+        tokenStream.reset(position);
+        tokenStream.furthest();
+
+        while (true) {
+            final int old = position >= resynchronized + tokenShift ? Arrays.binarySearch(this.starts, position - tokenShift) : -1;
+
+            if (old >= 0) {
+                for (int i = old; i < this.starts.length; i++, n++) {
+                    starts[n] = this.starts[i] + tokenShift;
+                    furthest[n] = this.furthest[i] + tokenShift;
+                    statements.add(this.statements.get(i));
+                }
+
+                position = this.end + tokenShift;
+                break;
+            }
+
+            final AbstractSyntaxTree statement = NonTerminal.STATEMENT.parse(tokenStream);
+
+            if (statement == null) {
+                break;
+            }
+
+            statements.add(statement);
+
+            starts[n] = position;
+            furthest[n++] = tokenStream.furthest();
+            position = tokenStream.getCurrentTokenPosition();
+        }
+
+        tokenStream.reset(position);
+        Terminal.END_OF_INPUT.buildAbstractSyntaxTree(tokenStream);
+
+        this.source = source;
+        this.tokens = tokens;
+        this.size = size;
+        this.starts = Arrays.copyOf(starts, n);
+        this.furthest = Arrays.copyOf(furthest, n);
+        this.statements = statements;
+        this.end = position;
+
+        return abstractSyntaxTree = new AbstractSyntaxTree.Statements(statements);
+    }
+
+    /* The old token starting exactly at the given character, if any. */
+    private int tokenStartingAt(final int start) {
+        int low = 0;
+        int high = size - 1;
+
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            final int middleStart = tokens[middle * TokenStream.TOKEN_SIZE + TokenStream.START];
+
+            if (middleStart < start) {
+                low = middle + 1;
+            } else if (middleStart > start) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+
+        return -1;
+    }
+}
@@ -0,0 +1,303 @@
+package org.watertemplate.interpreter.parser;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/*
+ * Writes the source of a class that renders a tree, to be compiled with the application: the same code Bytecode
+ * generates at runtime, but ahead of time. Sequences too long for a single method go on in another one, and so do the
+ * bodies of loops.
+ */
+final class JavaSource implements Emitter {
+
+    private static final int LIMIT = 1000; // statements per method, well below the 64K of code a method may have
+
+    private final Map<String, String> symbols = new LinkedHashMap<>(); // key -> field
+    private final Map<String, String> keys = new LinkedHashMap<>(); // loop variable -> field
+    private final List<String> texts = new ArrayList<>(); // encoded once, when the class is initialized
+    private final List<StringBuilder> methods = new ArrayList<>();
+
+    private final String simpleName;
+
+    private StringBuilder method;
+    private int statements;
+    private int indentation;
+    private int arguments;
+    private int variables;
+
+    private JavaSource(final String simpleName) {
+        this.simpleName = simpleName;
+    }
+
+    static String generate(final String className, final AbstractSyntaxTree abstractSyntaxTree) {
+        final int dot = className.lastIndexOf('.');
+        final JavaSource javaSource = new JavaSource(className.substring(dot + 1));
+        final String render = javaSource.method(abstractSyntaxTree);
+
+        final StringBuilder sb = new StringBuilder();
+
+        if (dot > 0) {
+            sb.append("package ").append(className, 0, dot).append(";\n\n");
+        }
+
+        sb.append("import org.watertemplate.ByteSink;\n");
+        sb.append("import org.watertemplate.Key;\n");
+        sb.append("import org.watertemplate.TemplateMap.Arguments;\n");
+        sb.append("import org.watertemplate.TemplateObject;\n");
+        sb.append("import org.watertemplate.interpreter.parser.Renderer;\n");
+        sb.append("import org.watertemplate.interpreter.parser.SymbolTable;\n");
+        sb.append("import org.watertemplate.interpreter.parser.exception.IdCouldNotBeResolvedException;\n\n");
+        sb.append("import java.io.IOException;\n");
+        sb.append("import java.nio.charset.StandardCharsets;\n");
+        sb.append("import java.util.Arrays;\n");
+        sb.append("import java.util.Collections;\n");
+        sb.append("import java.util.HashSet;\n");
+        sb.append("import java.util.Iterator;\n");
+        sb.append("import java.util.Locale;\n");
+        sb.append("import java.util.Set;\n");
+        sb.append("import java.util.function.BiConsumer;\n\n");
+        sb.append("/* Generated by Water Template, do not edit. */\n");
+        sb.append("@SuppressWarnings({\"unchecked\", \"rawtypes\"})\n");
+        sb.append("public final class ").append(className.substring(dot + 1)).append(" implements Renderer {\n\n");
+        sb.append("    private static final SymbolTable symbols = new SymbolTable();\n");
+
+        for (Map.Entry<String, String> symbol : javaSource.symbols.entrySet()) {
+            sb.append("    private static final SymbolTable.Symbol ").append(symbol.getValue())
+                    .append(" = symbols.symbol(").append(literal(symbol.getKey())).append(");\n");
+        }
+
+        for (Map.Entry<String, String> key : javaSource.keys.entrySet()) {
+            sb.append("    private static final Key ").append(key.getValue())
+                    .append(" = Key.of(").append(literal(key.getKey())).append(");\n");
+        }
+
+        sb.append("    private static final byte[][] texts = new byte[").append(javaSource.texts.size()).append("][];\n");
+        sb.append("    private static final Set<String> ids = Collections.unmodifiableSet(new HashSet<>(Arrays.<String>asList(")
+                .append(abstractSyntaxTree.ids().stream().sorted().map(JavaSource::literal).collect(Collectors.joining(", "))).append(")));\n");
+
+        // Encoded in methods of at most LIMIT texts each, since the static initializer is a method too
+        sb.append("\n    static {\n");
+
+        for (int i = 0; i < javaSource.texts.size(); i += LIMIT) {
+            sb.append("        texts").append(i / LIMIT).append("();\n");
+        }
+
+        sb.append("    }\n");
+
+        for (int i = 0; i < javaSource.texts.size(); i += LIMIT) {
+            sb.append("\n    private static void texts").append(i / LIMIT).append("() {\n");
+
+            for (int j = i; j < Math.min(javaSource.texts.size(), i + LIMIT); j++) {
+                sb.append("        texts[").append(j).append("] = ").append(literal(javaSource.texts.get(j)))
+                        .append(".getBytes(StandardCharsets.UTF_8);\n");
+            }
+
+            sb.append("    }\n");
+        }
+
+        sb.append("\n    @Override\n");
+        sb.append("    public void render(final Arguments arguments, final Locale locale, final Appendable out) throws IOException {\n");
+        sb.append("        ").append(render).append("(arguments, locale, out);\n");
+        sb.append("    }\n\n");
+        sb.append("    @Override\n");
+        sb.append("    public Set<String> ids() {\n");
+        sb.append("        return ids;\n");
+        sb.append("    }\n");
+
+        for (StringBuilder method : javaSource.methods) {
+            sb.append('\n').append(method);
+        }
+
+        sb.append("\n    private static TemplateObject found(final TemplateObject object, final String id) {\n");
+        sb.append("        if (object == null) {\n");
+        sb.append("            throw new IdCouldNotBeResolvedException(id);\n");
+        sb.append("        }\n\n");
+        sb.append("        return object;\n");
+        sb.append("    }\n\n");
+        sb.append("    private static Arguments mapped(final TemplateObject object, final String id) {\n");
+        sb.append("        if (!(object instanceof TemplateObject.Mapped)) {\n");
+        sb.append("            throw new IdCouldNotBeResolvedException(id);\n");
+        sb.append("        }\n\n");
+        sb.append("        return ((TemplateObject.Mapped) object).map();\n");
+        sb.append("    }\n");
+        sb.append("}\n");
+
+        return sb.toString();
+    }
+
+    @Override
+    public boolean isFull() {
+        return statements > LIMIT;
+    }
+
+    //
+
+    /* Byte sinks get the text encoded once, when the class is initialized, rather than on every render. */
+    @Override
+    public void append(final String text) {
+        // A string constant takes at most 65535 bytes of modified UTF-8, three per char at worst
+        for (int i = 0, end; i < text.length(); i = end) {
+            end = Math.min(text.length(), i + 0x3FFF);
+
+            if (end < text.length() && Character.isHighSurrogate(text.charAt(end - 1))) {
+                end--; // so that each part encodes on its own
+            }
+
+            final String part = text.substring(i, end);
+            line("ByteSink.appendTo(out, " + literal(part) + ", texts[" + texts.size() + "]);");
+            texts.add(part);
+        }
+    }
+
+    @Override
+    public void evaluate(final AbstractSyntaxTree.Id id) {
+        line(templateObject(id) + ".render(locale, out);");
+    }
+
+    @Override
+    public void branch(final AbstractSyntaxTree.Id conditionId, final AbstractSyntaxTree ifStatements, final AbstractSyntaxTree elseStatements) {
+        line("if (((TemplateObject.Condition) " + templateObject(conditionId) + ").isTrue()) {");
+        block(ifStatements);
+        line("} else {");
+        block(elseStatements);
+        line("}");
+    }
+
+    @Override
+    public void loop(final String variableName, final AbstractSyntaxTree.Id collectionId, final AbstractSyntaxTree forStatements, final AbstractSyntaxTree elseStatements) {
+        final int n = ++variables;
+
+        line("final TemplateObject.Collection c" + n + " = (TemplateObject.Collection) " + templateObject(collectionId) + ";");
+        final String key = keys.computeIfAbsent(variableName, k -> "k" + keys.size());
+
+        // The body goes in a method of its own, which a parallel loop renders through a method reference
+        final int outerArguments = arguments;
+        arguments = n;
+        final String body = method(forStatements);
+        arguments = outerArguments;
+
+        line("final Iterator t" + n + " = c" + n + ".items();");
+        line("if (t" + n + " == null) {");
+        block(elseStatements);
+        line("} else if (c" + n + ".isParallel()) {");
+        indentation++;
+        line("c" + n + ".renderInParallel(a" + arguments + ", " + key + ", " + simpleName + "::" + body + ", locale, out);");
+        indentation--;
+        line("} else {");
+        indentation++;
+        line("final Arguments a" + n + " = a" + arguments + ".frame();");
+        line("final BiConsumer m" + n + " = c" + n + ".getMapper();");
+        line("while (t" + n + ".hasNext()) {");
+        indentation++;
+        line("a" + n + ".addMappedObject(" + key + ", t" + n + ".next(), m" + n + ");");
+        line(body + "(a" + n + ", locale, out);");
+        indentation--;
+        line("}");
+        indentation--;
+        line("}");
+    }
+
+    @Override
+    public void rest(final List<AbstractSyntaxTree> statements) {
+        line(method(new AbstractSyntaxTree.Statements(statements)) + "(a" + arguments + ", locale, out);");
+    }
+
+    //
+
+    /* Writes a method rendering the tree with the current arguments, returns its name. */
+    private String method(final AbstractSyntaxTree abstractSyntaxTree) {
+        final String name = "render" + methods.size();
+        final StringBuilder outerMethod = method;
+        final int outerStatements = statements, outerIndentation = indentation;
+
+        method = new StringBuilder();
+        methods.add(method);
+        statements = 0;
+        indentation = 1;
+
+        line("private static void " + name + "(final Arguments a" + arguments + ", final Locale locale, final Appendable out) throws IOException {");
+        block(abstractSyntaxTree);
+        line("}");
+
+        method = outerMethod;
+        statements = outerStatements;
+        indentation = outerIndentation;
+        return name;
+    }
+
+    private void block(final AbstractSyntaxTree abstractSyntaxTree) {
+        indentation++;
+        abstractSyntaxTree.emit(this);
+        indentation--;
+    }
+
+    /* The expression of the template object of the id, following mapped objects key by key. */
+    private String templateObject(final AbstractSyntaxTree.Id id) {
+        final String fullId = literal(id.getFullId());
+        String expression = "a" + arguments;
+
+        for (AbstractSyntaxTree.Id nested = id; nested != null; nested = nested.getNestedId()) {
+            final String key = nested.getSymbol() == null ? literal(nested.getPropertyKey()) : symbol(nested.getSymbol());
+            expression = "found(" + expression + ".get(" + key + "), " + fullId + ")";
+
+            if (nested.getNestedId() != null) {
+                expression = "mapped(" + expression + ", " + fullId + ")";
+            }
+        }
+
+        return expression;
+    }
+
+    private String symbol(final SymbolTable.Symbol symbol) {
+        return symbols.computeIfAbsent(symbol.getKey(), key -> "s" + symbols.size());
+    }
+
+    private void line(final String line) {
+        for (int i = 0; i < indentation; i++) {
+            method.append("    ");
+        }
+
+        method.append(line).append('\n');
+        statements++;
+    }
+
+    /* A string literal: no unicode escapes below 0x80, since javac would turn them into the chars before lexing. */
+    private static String literal(final String value) {
+        final StringBuilder sb = new StringBuilder(value.length() + 2).append('"');
+
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20 || c == 0x7F) {
+                        sb.append(String.format("\\%03o", (int) c));
+                    } else if (c > 0x7F) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+
+        return sb.append('"').toString();
+    }
+}
@@ -1,114 +1,475 @@
 package org.watertemplate.interpreter.parser;
 
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.util.ArrayList;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
-import java.util.List;
-import java.util.stream.Collectors;
-
-import static org.watertemplate.interpreter.parser.Terminal.TEXT;
 
 
 public class Lexer {
     private static final int BUFFER_SIZE = 8192;
 
-    private final char[] buffer = new char[BUFFER_SIZE];
-    private List<Terminal> previousCandidates = new ArrayList<>();
+    // Character classes
+    private static final byte OTHER = 0;
+    private static final byte BLANK = 1;
+    private static final byte LETTER = 2;
+    private static final byte DIGIT = 3;
+    private static final byte ACCESSOR = 4;
+    private static final byte COLON = 5;
+    private static final byte WAVE = 6;
+    private static final byte NULL = 7;
+
+    private static final byte[] CHARACTER_CLASSES = new byte[128];
+    private static final boolean[] TEXT_TERMINATORS = new boolean[128];
+
+    // States
+    private static final int START = 0;
+    private static final int IN_TEXT = 1;
+    private static final int IN_BLANK = 2;
+    private static final int IN_IDENTIFIER = 3;
+    private static final int AFTER_COLON = 4;
+    private static final int IN_ELSE = 5;
+
+    // Every terminal set a token can end up with
+    private static final int TEXT = Terminal.setOf(Terminal.TEXT);
+    private static final int BLANK_ONLY = Terminal.setOf(Terminal.BLANK);
+    private static final int BLANK_OR_TEXT = Terminal.setOf(Terminal.BLANK, Terminal.TEXT);
+    private static final int NULL_CHARACTER = Terminal.setOf(Terminal.BLANK, Terminal.TEXT, Terminal.END_OF_INPUT);
+    private static final int PROPERTY_KEY_OR_TEXT = Terminal.setOf(Terminal.PROPERTY_KEY, Terminal.TEXT);
+    private static final int IF_KEYWORD = Terminal.setOf(Terminal.IF, Terminal.PROPERTY_KEY, Terminal.TEXT);
+    private static final int IN_KEYWORD = Terminal.setOf(Terminal.IN, Terminal.PROPERTY_KEY, Terminal.TEXT);
+    private static final int FOR_KEYWORD = Terminal.setOf(Terminal.FOR, Terminal.PROPERTY_KEY, Terminal.TEXT);
+    private static final int ACCESSOR_OR_TEXT = Terminal.setOf(Terminal.ACCESSOR, Terminal.TEXT);
+    private static final int COLON_OR_TEXT = Terminal.setOf(Terminal.COLON, Terminal.TEXT);
+    private static final int WAVE_OR_TEXT = Terminal.setOf(Terminal.WAVE, Terminal.TEXT);
+    private static final int ELSE = Terminal.setOf(Terminal.ELSE);
+    private static final int END_OF_BLOCK = Terminal.setOf(Terminal.END_OF_BLOCK);
+    private static final int END_OF_INPUT = Terminal.setOf(Terminal.END_OF_INPUT);
+
+    private Reader reader; // null once the whole input has been read
+    private boolean rawUtf8; // whether the buffer holds UTF-8 bytes, one per char, instead of decoded chars
+    private char[] source = new char[BUFFER_SIZE * 2];
+    private int length;
+    private int[] tokens = new int[BUFFER_SIZE / 4 * TokenStream.TOKEN_SIZE];
+    private int size;
+    private int discarded; // how many tokens were dropped from the front of the buffers
+    private int offset; // and how many characters
+
+    // Where tokenize() left off
+    private int position;
+    private int state = START;
+    private int start;
+    private int elseIndex;
+
+    static {
+        for (char c = 0; c < CHARACTER_CLASSES.length; c++) {
+            if (Terminal.END_OF_INPUT.isCandidateFrom(c, 0)) {
+                CHARACTER_CLASSES[c] = NULL;
+            } else if (Terminal.BLANK.isCandidateFrom(c, 0)) {
+                CHARACTER_CLASSES[c] = BLANK;
+            } else if (Terminal.PROPERTY_KEY.isCandidateFrom(c, 0)) {
+                CHARACTER_CLASSES[c] = LETTER;
+            } else if (Terminal.PROPERTY_KEY.isCandidateFrom(c, 1)) {
+                CHARACTER_CLASSES[c] = DIGIT;
+            } else if (Terminal.ACCESSOR.isCandidateFrom(c, 0)) {
+                CHARACTER_CLASSES[c] = ACCESSOR;
+            } else if (Terminal.COLON.isCandidateFrom(c, 0)) {
+                CHARACTER_CLASSES[c] = COLON;
+            } else if (Terminal.WAVE.isCandidateFrom(c, 0)) {
+                CHARACTER_CLASSES[c] = WAVE;
+            }
+
+            TEXT_TERMINATORS[c] = !Terminal.TEXT.isCandidateFrom(c, 1);
+        }
+    }
+
+    public Lexer() {
+    }
+
+    /* A lexer that has already read everything, holding the given tokens. */
+    Lexer(final Token... tokens) {
+        final StringBuilder values = new StringBuilder();
 
+        for (Token token : tokens) {
+            add(values.length(), values.length() + token.getValue().length(), token.getTerminalSet());
+            values.append(token.getValue());
+        }
 
-    public List<Token> lex(final InputStream stream) {
+        source = values.toString().toCharArray();
+        length = source.length;
+    }
 
-        try (final BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(stream))) {
+    /* A lexer that has already read everything, holding tokens that point into source. */
+    Lexer(final char[] source, final int[] tokens, final int size) {
+        this.source = source;
+        this.length = source.length;
+        this.tokens = tokens;
+        this.size = size;
+    }
 
-            List<Token> tokens = tokenize(bufferedReader);
-            tokens.add(Token.END_OF_INPUT);
-            return tokens;
+    /*
+     * Nothing is read yet: the returned stream pulls tokens from here as the parser asks for them, a chunk of input at
+     * a time. The caller owns the input stream and should close it once parsing is done.
+     *
+     * UTF-8 is lexed byte by byte: every character the grammar cares about is ASCII, and UTF-8 never uses ASCII
+     * bytes inside a multibyte sequence. Read as ISO-8859-1, each byte lands unchanged in a char of its own; token
+     * values are decoded one by one, and literal text keeps its bytes as they are.
+     */
+    public TokenStream lex(final InputStream stream, final Charset charset) {
+        rawUtf8 = charset.equals(StandardCharsets.UTF_8);
+        return lex(new InputStreamReader(stream, rawUtf8 ? StandardCharsets.ISO_8859_1 : charset));
+    }
+
+    /* Same as above, but decoding straight from the bytes (a mapped file, for instance) into the lexer's buffer. */
+    public TokenStream lex(final ByteBuffer bytes, final Charset charset) {
+        rawUtf8 = charset.equals(StandardCharsets.UTF_8);
+        return lex(new DecodingReader(bytes, rawUtf8 ? StandardCharsets.ISO_8859_1 : charset));
+    }
+
+    TokenStream lex(final Reader reader) {
+        this.reader = reader;
+        return new TokenStream(this);
+    }
+
+    /* Whether the given token exists, lexing more of the input if needed. Tokens before firstNeeded may be dropped. */
+    boolean has(final int token, final int firstNeeded) {
+        while (token >= discarded + size && reader != null) {
+            pull(firstNeeded);
+        }
+
+        return token < discarded + size;
+    }
+
+    /* How many tokens there are in total, lexing whatever is left of the input. */
+    int count(final int firstNeeded) {
+        while (reader != null) {
+            pull(firstNeeded);
+        }
+
+        return discarded + size;
+    }
+
+    /* Where the token starts, counting from the beginning of the input. */
+    int start(final int token) {
+        return offset + tokens[(token - discarded) * TokenStream.TOKEN_SIZE + TokenStream.START];
+    }
+
+    int length(final int token) {
+        return tokens[(token - discarded) * TokenStream.TOKEN_SIZE + TokenStream.LENGTH];
+    }
+
+    int terminalSet(final int token) {
+        return tokens[(token - discarded) * TokenStream.TOKEN_SIZE + TokenStream.TERMINALS];
+    }
+
+    String value(final int token) {
+        if (rawUtf8) {
+            return new String(bytes(token), StandardCharsets.UTF_8);
+        }
+
+        final int index = (token - discarded) * TokenStream.TOKEN_SIZE;
+        return new String(source, tokens[index + TokenStream.START], tokens[index + TokenStream.LENGTH]);
+    }
+
+    /* The token's value encoded as UTF-8. Raw UTF-8 input already is, so its bytes are just copied out. */
+    byte[] bytes(final int token) {
+        if (!rawUtf8) {
+            return value(token).getBytes(StandardCharsets.UTF_8);
+        }
+
+        final int index = (token - discarded) * TokenStream.TOKEN_SIZE;
+        final int start = tokens[index + TokenStream.START];
+        final byte[] bytes = new byte[tokens[index + TokenStream.LENGTH]];
+
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) source[start + i];
+        }
+
+        return bytes;
+    }
+
+    private void pull(final int firstNeeded) {
+        if (source.length - length <= BUFFER_SIZE) {
+            discardBefore(firstNeeded);
+        }
+
+        if (source.length - length <= BUFFER_SIZE) {
+            source = Arrays.copyOf(source, source.length * 2);
+        }
 
-        } catch (Exception e) {
+        final int nReadChars;
+
+        try {
+            nReadChars = reader.read(source, length, BUFFER_SIZE);
+        } catch (IOException e) {
             throw new RuntimeException(e);
         }
+
+        if (nReadChars == -1) {
+            flush();
+            source[length] = '\0';
+            add(length, length + 1, END_OF_INPUT);
+            reader = null;
+        } else {
+            length += nReadChars;
+            tokenize();
+        }
+    }
+
+    /* Drops the tokens before firstNeeded and the characters they were made of. */
+    private void discardBefore(final int firstNeeded) {
+        final int dropped = firstNeeded - discarded;
+        final int from = dropped < size ? tokens[dropped * TokenStream.TOKEN_SIZE + TokenStream.START] : pendingStart();
+
+        if (from == 0) {
+            return;
+        }
+
+        System.arraycopy(source, from, source, 0, length - from);
+        System.arraycopy(tokens, dropped * TokenStream.TOKEN_SIZE, tokens, 0, (size - dropped) * TokenStream.TOKEN_SIZE);
+
+        size -= dropped;
+        discarded = firstNeeded;
+        offset += from;
+        length -= from;
+        position -= from;
+        start -= from;
+
+        for (int i = 0; i < size; i++) {
+            tokens[i * TokenStream.TOKEN_SIZE + TokenStream.START] -= from;
+        }
+    }
+
+    private int pendingStart() {
+        return state == START ? position : start;
     }
 
-    private List<Token> tokenize(final BufferedReader bufferedReader) throws IOException {
-        StringBuilder accumulator = new StringBuilder();
-        List<Token> tokens = new ArrayList<>();
+    /*
+     * A token ends when its next character can't be part of it; that character is then the first one of the
+     * next token. Lexing stops at the end of what was read so far and picks up from there once there is more.
+     */
+    private void tokenize() {
+        int state = this.state;
+        int start = this.start;
+        int elseIndex = this.elseIndex;
+        int i = position;
 
-        for (int nReadChars; (nReadChars = bufferedReader.read(buffer, 0, BUFFER_SIZE)) != -1; ) {
-            for (int i = 0; i < nReadChars; i++) {
-                i = process(accumulator, tokens, i, buffer[i]);
+        for (; i < length; i++) {
+            if (state == IN_TEXT) {
+                i = endOfText(i);
+
+                if (i == length) {
+                    break;
+                }
+
+                add(start, i, TEXT);
+                state = START;
+            }
+
+            final char c = source[i];
+
+            switch (state) {
+                case IN_BLANK:
+                    if (characterClass(c) == BLANK || characterClass(c) == NULL) {
+                        continue;
+                    }
+                    add(start, i, blankTerminals(source, start, i));
+                    break;
+
+                case IN_IDENTIFIER:
+                    if (characterClass(c) == LETTER || characterClass(c) == DIGIT) {
+                        continue;
+                    }
+                    add(start, i, identifierTerminals(source, start, i));
+                    break;
+
+                case AFTER_COLON:
+                    if (Terminal.END_OF_BLOCK.isCandidateFrom(c, 1)) {
+                        add(start, i + 1, END_OF_BLOCK);
+                        state = START;
+                        continue;
+                    }
+                    if (Terminal.ELSE.isCandidateFrom(c, 1)) {
+                        state = IN_ELSE;
+                        elseIndex = 2;
+                        continue;
+                    }
+                    add(start, i, COLON_OR_TEXT);
+                    break;
+
+                case IN_ELSE:
+                    if (Terminal.ELSE.isCandidateFrom(c, elseIndex)) {
+                        if (Terminal.ELSE.isAcceptableWithLength(++elseIndex)) {
+                            add(start, i + 1, ELSE);
+                            state = START;
+                        }
+                        continue;
+                    }
+                    add(start, i, TEXT);
+                    break;
+            }
+
+            start = i;
+
+            switch (characterClass(c)) {
+                case NULL:
+                case BLANK:
+                    state = IN_BLANK;
+                    break;
+                case LETTER:
+                    state = IN_IDENTIFIER;
+                    break;
+                case COLON:
+                    state = AFTER_COLON;
+                    break;
+                case ACCESSOR:
+                    add(i, i + 1, ACCESSOR_OR_TEXT);
+                    state = START;
+                    break;
+                case WAVE:
+                    add(i, i + 1, WAVE_OR_TEXT);
+                    state = START;
+                    break;
+                default:
+                    state = IN_TEXT;
             }
         }
 
-        process(accumulator, tokens, 0, '\0');
-        return tokens;
+        this.state = state;
+        this.start = start;
+        this.elseIndex = elseIndex;
+        this.position = i;
     }
 
-    private int process(final StringBuilder accumulator, final List<Token> tokens, int i, char c) {
-        String previous = accumulator.toString();
-        String current = accumulator.append(c).toString();
+    /* The end of the input behaves like a '\0', which is why trailing blanks never become a token. */
+    private void flush() {
+        switch (state) {
+            case IN_TEXT:
+            case IN_ELSE:
+                add(start, length, TEXT);
+                break;
+            case IN_IDENTIFIER:
+                add(start, length, identifierTerminals(source, start, length));
+                break;
+            case AFTER_COLON:
+                add(start, length, COLON_OR_TEXT);
+                break;
+        }
+
+        state = START;
+        position = length;
+    }
 
-        Token accepted = tryToAcceptFrom(previous, current);
+    private static byte characterClass(final char c) {
+        return c < CHARACTER_CLASSES.length ? CHARACTER_CLASSES[c] : OTHER;
+    }
 
-        if (accepted != null) {
-            tokens.add(accepted);
-            accumulator.setLength(0);
-            return i - 1;
+    /* Plain text can't hold anything but itself until the next terminator, so it is skipped in bulk. */
+    private int endOfText(int i) {
+        while (i < length && !isTextTerminator(source[i])) {
+            i++;
         }
 
         return i;
     }
 
-    private Token tryToAcceptFrom(final String previous, final String current) {
+    private static boolean isTextTerminator(final char c) {
+        return c < TEXT_TERMINATORS.length && TEXT_TERMINATORS[c];
+    }
 
-        final List<Terminal> currentCandidates = Arrays.asList(Terminal.values()).stream()
-                .filter(terminal -> terminal.isCandidateFrom(current))
-                .collect(Collectors.toList());
+    private static int blankTerminals(final char[] source, final int start, final int end) {
+        if (end - start > 1) {
+            return source[end - 1] == '\0' ? BLANK_ONLY : BLANK_OR_TEXT;
+        }
+
+        return source[start] == '\0' ? NULL_CHARACTER : BLANK_OR_TEXT;
+    }
 
-        if (containsOnly(TEXT, currentCandidates) && previousCandidates.isEmpty()) {
-            return null;
+    private static int identifierTerminals(final char[] source, final int start, final int end) {
+        if (matches(Keywords.IF, source, start, end)) {
+            return IF_KEYWORD;
+        } else if (matches(Keywords.IN, source, start, end)) {
+            return IN_KEYWORD;
+        } else if (matches(Keywords.FOR, source, start, end)) {
+            return FOR_KEYWORD;
         }
 
-        if (currentCandidates.isEmpty() && previousCandidates.isEmpty()) {
-            return new Token(previous, TEXT);
+        return PROPERTY_KEY_OR_TEXT;
+    }
+
+    private static boolean matches(final String keyword, final char[] source, final int start, final int end) {
+        if (end - start != keyword.length()) {
+            return false;
         }
 
-        if ((currentCandidates.isEmpty() || containsOnly(TEXT, currentCandidates)) && !previousCandidates.isEmpty()) {
-            return acceptFrom(previous);
+        for (int i = start; i < end; i++) {
+            if (source[i] != keyword.charAt(i - start)) {
+                return false;
+            }
         }
 
-        previousCandidates = currentCandidates;
-        return null;
+        return true;
     }
 
-    private Token acceptFrom(final String string) {
-        List<Terminal> allAcceptable = previousCandidates.stream()
-                .filter(terminal -> terminal.isAcceptableFrom(string))
-                .collect(Collectors.toList());
+    private void add(final int start, final int end, final int terminalSet) {
+        if (size * TokenStream.TOKEN_SIZE == tokens.length) {
+            tokens = Arrays.copyOf(tokens, tokens.length * 2);
+        }
 
-        previousCandidates.clear();
-        return new Token(string, allAcceptable);
+        tokens[size * TokenStream.TOKEN_SIZE + TokenStream.START] = start;
+        tokens[size * TokenStream.TOKEN_SIZE + TokenStream.LENGTH] = end - start;
+        tokens[size * TokenStream.TOKEN_SIZE + TokenStream.TERMINALS] = terminalSet;
+        size++;
     }
 
-    private Boolean containsOnly(final Terminal terminal, final List<Terminal> list) {
-        return list.size() == 1 && list.contains(terminal);
-    }
+    private static class DecodingReader extends Reader {
+        private final ByteBuffer bytes;
+        private final CharsetDecoder decoder;
+        private boolean done;
 
-    //
-    // tests only
-    List<Token> tokenize(String input) {
-        StringBuilder accumulator = new StringBuilder();
-        List<Token> tokens = new ArrayList<>();
-        input += '\0';
+        DecodingReader(final ByteBuffer bytes, final Charset charset) {
+            this.bytes = bytes;
+            this.decoder = charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+
+        @Override
+        public int read(final char[] buffer, final int offset, final int length) {
+            if (done) {
+                return -1;
+            }
+
+            final CharBuffer chars = CharBuffer.wrap(buffer, offset, length);
+            decoder.decode(bytes, chars, true);
+
+            if (!bytes.hasRemaining() && decoder.flush(chars).isUnderflow()) {
+                done = true;
+            }
+
+            final int nReadChars = chars.position() - offset;
+            return nReadChars == 0 && done ? -1 : nReadChars;
+        }
 
-        for (int i = 0; i < input.length(); i++) {
-            i = process(accumulator, tokens, i, input.charAt(i));
+        @Override
+        public void close() {
         }
+    }
 
-        return tokens;
+    //
+    // tests only
+    TokenStream tokenize(String input) {
+        source = input.toCharArray();
+        length = input.length();
+        tokenize();
+        flush();
+        return new TokenStream(this);
     }
 }
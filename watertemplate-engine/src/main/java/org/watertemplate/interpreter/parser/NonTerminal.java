@@ -1,7 +1,5 @@
 package org.watertemplate.interpreter.parser;
 
-import org.watertemplate.interpreter.parser.exception.ParseException;
-
 import java.util.ArrayList;
 import java.util.List;
 
@@ -13,14 +11,19 @@ enum NonTerminal implements GrammarSymbol {
         @Override
         void addProductions(final List<GrammarSymbol> symbols) {
             symbols.add(new Production.If());
-            symbols.add(new Production.IfElse());
         }
     },
     FOR_COMMAND {
         @Override
         void addProductions(final List<GrammarSymbol> symbols) {
             symbols.add(new Production.For());
-            symbols.add(new Production.ForElse());
+        }
+    },
+    OPTIONAL_ELSE {
+        @Override
+        void addProductions(final List<GrammarSymbol> symbols) {
+            symbols.add(END_OF_BLOCK);
+            symbols.add(new Production.Else());
         }
     },
     NESTED_PROP {
@@ -51,18 +54,36 @@ enum NonTerminal implements GrammarSymbol {
             symbols.add(EVALUATION);
             symbols.add(TEXT);
         }
+
+        /* A block that turns out not to be one is text, and its content is parsed again: each statement only once. */
+        @Override
+        public AbstractSyntaxTree parse(final TokenStream tokenStream) {
+            final int position = tokenStream.getCurrentTokenPosition();
+            final AbstractSyntaxTree parsed = tokenStream.parsed(position);
+
+            if (parsed != null) {
+                return parsed;
+            }
+
+            final AbstractSyntaxTree abstractSyntaxTree = super.parse(tokenStream);
+
+            if (abstractSyntaxTree != null) {
+                tokenStream.parsed(position, abstractSyntaxTree);
+            }
+
+            return abstractSyntaxTree;
+        }
     },
     STATEMENTS {
         @Override
         void addProductions(final List<GrammarSymbol> symbols) {
-            symbols.add(new Production.Statements(STATEMENT, STATEMENTS));
-            symbols.add(new Production.Empty());
+            symbols.add(new Production.Repetition(STATEMENT));
         }
     },
     TEMPLATE {
         @Override
         void addProductions(final List<GrammarSymbol> symbols) {
-            symbols.add(new Production.Statements(STATEMENTS, END_OF_INPUT));
+            symbols.add(new Production.Template());
         }
     };
 
@@ -70,23 +91,51 @@ enum NonTerminal implements GrammarSymbol {
         for (final NonTerminal nonTerminal : NonTerminal.values()) {
             nonTerminal.addProductions(nonTerminal.symbols);
         }
+
+        for (final NonTerminal nonTerminal : NonTerminal.values()) {
+            nonTerminal.firstSets = nonTerminal.symbols.stream().mapToInt(s -> s.neverFails() ? -1 : s.firstSet()).toArray();
+        }
     }
 
     private final List<GrammarSymbol> symbols = new ArrayList<>();
+    private int[] firstSets; // of each production, -1 for those that never fail
 
     abstract void addProductions(final List<GrammarSymbol> symbols);
 
-    public final AbstractSyntaxTree buildAbstractSyntaxTree(final TokenStream tokenStream) throws ParseException {
-        ParseException lastException = null;
+    /* Only productions that can start with the current token are tried, in order, the first one that matches wins. */
+    @Override
+    public AbstractSyntaxTree parse(final TokenStream tokenStream) {
+        for (int i = 0; i < symbols.size(); i++) {
+            final GrammarSymbol symbol = symbols.get(i);
+
+            if (firstSets[i] != -1 && !tokenStream.currentCanBeAnyOf(firstSets[i])) {
+                tokenStream.fail(symbol.leading());
+                continue;
+            }
+
+            final AbstractSyntaxTree abstractSyntaxTree = symbol.parse(tokenStream);
 
-        for (GrammarSymbol symbol : symbols) {
-            try {
-                return symbol.buildAbstractSyntaxTree(tokenStream);
-            } catch (ParseException e) {
-                lastException = e;
+            if (abstractSyntaxTree != null) {
+                return abstractSyntaxTree;
             }
         }
 
-        throw lastException;
+        return null;
+    }
+
+    @Override
+    public boolean neverFails() {
+        return symbols.stream().anyMatch(GrammarSymbol::neverFails);
+    }
+
+    @Override
+    public int firstSet() {
+        return symbols.stream().mapToInt(GrammarSymbol::firstSet).reduce(0, (a, b) -> a | b);
+    }
+
+    /* Every production failing, it's the last one that is reported. */
+    @Override
+    public Terminal leading() {
+        return symbols.get(symbols.size() - 1).leading();
     }
 }
@@ -3,7 +3,12 @@ package org.watertemplate.interpreter.parser;
 import java.util.List;
 
 public class Parser {
+    public AbstractSyntaxTree parse(final TokenStream tokenStream) {
+        return NonTerminal.TEMPLATE.buildAbstractSyntaxTree(tokenStream);
+    }
+
+    /* Tokens already lexed, ending with Token.END_OF_INPUT. */
     public AbstractSyntaxTree parse(final List<Token> tokens) {
-        return NonTerminal.TEMPLATE.buildAbstractSyntaxTree(new TokenStream(tokens));
+        return parse(new TokenStream(tokens.toArray(new Token[tokens.size()])));
     }
 }
@@ -1,7 +1,5 @@
 package org.watertemplate.interpreter.parser;
 
-import org.watertemplate.interpreter.parser.exception.ParseException;
-
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -13,61 +11,117 @@ import static org.watertemplate.interpreter.parser.Terminal.*;
 abstract class Production implements GrammarSymbol {
 
     private final List<GrammarSymbol> symbols;
+    private int cut = -1;
 
     Production(final GrammarSymbol... symbols) {
         this.symbols = Arrays.asList(symbols);
     }
 
+    /*
+     * A symbol that doesn't match leaves the stream where it was, so there is only something to go back on when a
+     * symbol other than the first may fail: productions decided by their first symbol, as the FIRST sets let most of
+     * them be, don't mark the stream at all.
+     */
     @Override
-    public AbstractSyntaxTree buildAbstractSyntaxTree(final TokenStream tokenStream) {
-        List<AbstractSyntaxTree> abstractSyntaxTrees = new ArrayList<>();
-        int save = tokenStream.getCurrentTokenPosition();
+    public AbstractSyntaxTree parse(final TokenStream tokenStream) {
+        List<AbstractSyntaxTree> abstractSyntaxTrees = new ArrayList<>(symbols.size());
+        int cut = cut();
+
+        if (cut <= 1) {
+            return parse(tokenStream, abstractSyntaxTrees, 0);
+        }
+
+        int save = tokenStream.mark();
+
+        for (int i = 0; i < cut; i++) {
+            final AbstractSyntaxTree abstractSyntaxTree = symbols.get(i).parse(tokenStream);
 
-        try {
-            for (GrammarSymbol symbol : symbols) {
-                abstractSyntaxTrees.add(symbol.buildAbstractSyntaxTree(tokenStream));
+            if (abstractSyntaxTree == null) {
+                tokenStream.reset(save);
+                tokenStream.release(save);
+                return null;
             }
-        } catch (ParseException e) {
-            tokenStream.reset(save);
-            throw e;
+
+            abstractSyntaxTrees.add(abstractSyntaxTree);
+        }
+
+        tokenStream.release(save);
+
+        /* Nothing from here on can fail, so there is no going back to save: the tokens before it can be dropped. */
+        return parse(tokenStream, abstractSyntaxTrees, cut);
+    }
+
+    private AbstractSyntaxTree parse(final TokenStream tokenStream, final List<AbstractSyntaxTree> abstractSyntaxTrees, final int from) {
+        for (int i = from; i < symbols.size(); i++) {
+            final AbstractSyntaxTree abstractSyntaxTree = symbols.get(i).parse(tokenStream);
+
+            if (abstractSyntaxTree == null) { // the first symbol, or see Template
+                return null;
+            }
+
+            abstractSyntaxTrees.add(abstractSyntaxTree);
         }
 
         return zip(abstractSyntaxTrees);
     }
 
-    abstract AbstractSyntaxTree zip(final List<AbstractSyntaxTree> statements);
+    @Override
+    public boolean neverFails() {
+        return symbols.stream().allMatch(GrammarSymbol::neverFails);
+    }
 
-    static class If extends Production {
+    /* Up to the first symbol that can't match nothing, since those before it may. */
+    @Override
+    public int firstSet() {
+        int firstSet = 0;
 
-        If() {
-            super(WAVE, IF, BLANK, ID, COLON,
-                    STATEMENTS,
-                    END_OF_BLOCK);
+        for (GrammarSymbol symbol : symbols) {
+            firstSet |= symbol.firstSet();
+
+            if (!symbol.neverFails()) {
+                break;
+            }
         }
 
-        @Override
-        AbstractSyntaxTree zip(final List<AbstractSyntaxTree> statements) {
-            AbstractSyntaxTree.Id conditionId = (AbstractSyntaxTree.Id) statements.get(3);
-            AbstractSyntaxTree ifStatements = statements.get(5);
+        return firstSet;
+    }
+
+    /* When the next token can't start this, the symbols before the first that can't match nothing match nothing. */
+    @Override
+    public Terminal leading() {
+        return symbols.stream().filter(symbol -> !symbol.neverFails()).findFirst().map(GrammarSymbol::leading).orElse(null);
+    }
+
+    /* Where the symbols that can't fail start. Computed lazily since non terminals may not be complete at construction. */
+    int cut() {
+        if (cut == -1) {
+            int i = symbols.size();
 
-            return new AbstractSyntaxTree.If(conditionId, ifStatements);
+            while (i > 0 && symbols.get(i - 1).neverFails()) {
+                i--;
+            }
+
+            cut = i;
         }
+
+        return cut;
     }
 
-    static class IfElse extends Production {
+    abstract AbstractSyntaxTree zip(final List<AbstractSyntaxTree> statements);
+
+    static class If extends Production {
 
-        IfElse() {
+        If() {
             super(WAVE, IF, BLANK, ID, COLON,
                     STATEMENTS,
-                    ELSE,
-                    STATEMENTS, END_OF_BLOCK);
+                    OPTIONAL_ELSE);
         }
 
         @Override
         AbstractSyntaxTree zip(final List<AbstractSyntaxTree> statements) {
             AbstractSyntaxTree.Id conditionId = (AbstractSyntaxTree.Id) statements.get(3);
             AbstractSyntaxTree ifStatements = statements.get(5);
-            AbstractSyntaxTree elseStatements = statements.get(7);
+            AbstractSyntaxTree elseStatements = statements.get(6);
 
             return new AbstractSyntaxTree.If(conditionId, ifStatements, elseStatements);
         }
@@ -78,7 +132,7 @@ abstract class Production implements GrammarSymbol {
         For() {
             super(WAVE, FOR, BLANK, PROPERTY_KEY, BLANK, IN, BLANK, ID, COLON,
                     STATEMENTS,
-                    END_OF_BLOCK);
+                    OPTIONAL_ELSE);
         }
 
         @Override
@@ -86,29 +140,24 @@ abstract class Production implements GrammarSymbol {
             String propertyKey = ((AbstractSyntaxTree.Id) statements.get(3)).getPropertyKey();
             AbstractSyntaxTree.Id collectionId = (AbstractSyntaxTree.Id) statements.get(7);
             AbstractSyntaxTree forStatements = statements.get(9);
+            AbstractSyntaxTree elseStatements = statements.get(10);
 
-            return new AbstractSyntaxTree.For(propertyKey, collectionId, forStatements);
+            return new AbstractSyntaxTree.For(propertyKey, collectionId, forStatements, elseStatements);
         }
     }
 
-    static class ForElse extends Production {
+    /* What follows the body of a command with an else: the else body. Without an else, it's END_OF_BLOCK alone. */
+    static class Else extends Production {
 
-        ForElse() {
-            super(WAVE, FOR, BLANK, PROPERTY_KEY, BLANK, IN, BLANK, ID, COLON,
-                    STATEMENTS,
-                    ELSE,
+        Else() {
+            super(ELSE,
                     STATEMENTS,
                     END_OF_BLOCK);
         }
 
         @Override
         AbstractSyntaxTree zip(final List<AbstractSyntaxTree> statements) {
-            String propertyKey = ((AbstractSyntaxTree.Id) statements.get(3)).getPropertyKey();
-            AbstractSyntaxTree.Id collectionId = (AbstractSyntaxTree.Id) statements.get(7);
-            AbstractSyntaxTree forStatements = statements.get(9);
-            AbstractSyntaxTree elseStatements = statements.get(11);
-
-            return new AbstractSyntaxTree.For(propertyKey, collectionId, forStatements, elseStatements);
+            return statements.get(1);
         }
     }
 
@@ -126,7 +175,7 @@ abstract class Production implements GrammarSymbol {
             if (nested == EMPTY) {
                 return propertyKey;
             } else {
-                return new AbstractSyntaxTree.Id(propertyKey.getPropertyKey(), (AbstractSyntaxTree.Id) nested);
+                return new AbstractSyntaxTree.Id(propertyKey, (AbstractSyntaxTree.Id) nested);
             }
         }
     }
@@ -167,6 +216,51 @@ abstract class Production implements GrammarSymbol {
         }
     }
 
+    /* Any number of the given symbol, one after the other: a loop rather than a recursion, so only blocks nest. */
+    static class Repetition extends Production {
+
+        private final GrammarSymbol symbol;
+
+        Repetition(final GrammarSymbol symbol) {
+            super(symbol);
+            this.symbol = symbol;
+        }
+
+        @Override
+        public AbstractSyntaxTree parse(final TokenStream tokenStream) {
+            final List<AbstractSyntaxTree> abstractSyntaxTrees = new ArrayList<>();
+
+            for (AbstractSyntaxTree abstractSyntaxTree; (abstractSyntaxTree = symbol.parse(tokenStream)) != null; ) {
+                abstractSyntaxTrees.add(abstractSyntaxTree);
+            }
+
+            return zip(abstractSyntaxTrees);
+        }
+
+        @Override
+        public boolean neverFails() {
+            return true;
+        }
+
+        @Override
+        AbstractSyntaxTree zip(final List<AbstractSyntaxTree> statements) {
+            return statements.isEmpty() ? EMPTY : new AbstractSyntaxTree.Statements(statements);
+        }
+    }
+
+    static class Template extends Statements {
+
+        Template() {
+            super(STATEMENTS, END_OF_INPUT);
+        }
+
+        /* The start symbol has nowhere to go back to: if it fails, the whole parse does. */
+        @Override
+        int cut() {
+            return 0;
+        }
+    }
+
     static class Empty extends Production {
         @Override
         AbstractSyntaxTree zip(final List<AbstractSyntaxTree> statements) {
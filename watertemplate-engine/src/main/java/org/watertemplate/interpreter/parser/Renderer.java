@@ -0,0 +1,38 @@
+package org.watertemplate.interpreter.parser;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Locale;
+import java.util.Set;
+
+import static org.watertemplate.TemplateMap.Arguments;
+
+/*
+ * A tree compiled into closures: each node becomes one that knows exactly what it renders and writes it to the same
+ * Appendable, instead of walking the tree again on every render.
+ */
+@FunctionalInterface
+public interface Renderer {
+
+    Renderer EMPTY = (arguments, locale, out) -> {
+    };
+
+    void render(final Arguments arguments, final Locale locale, final Appendable out) throws IOException;
+
+    /* The ids every render evaluates or loops over, see AbstractSyntaxTree.ids, or null if they are not known. */
+    default Set<String> ids() {
+        return null;
+    }
+
+    default String string(final Arguments arguments, final Locale locale) {
+        final StringBuilder sb = new StringBuilder();
+
+        try {
+            render(arguments, locale, sb);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // a StringBuilder never throws it
+        }
+
+        return sb.toString();
+    }
+}
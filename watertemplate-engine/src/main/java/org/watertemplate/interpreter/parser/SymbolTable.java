@@ -0,0 +1,52 @@
+package org.watertemplate.interpreter.parser;
+
+import org.watertemplate.Key;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * The property keys of a template, numbered as the parser finds them. Arguments looked up with them keep what they
+ * found at that number, so evaluating the same key again, as in a loop, is an array access rather than a hash lookup.
+ */
+public final class SymbolTable {
+
+    // Symbols may be added while renders look them up, as when developer mode reparses, and on several threads at once:
+    // slots are counted apart from the map, so that no two keys share one.
+    private final Map<String, Symbol> symbols = new ConcurrentHashMap<>();
+    private final AtomicInteger slots = new AtomicInteger();
+
+    public Symbol symbol(final String key) {
+        return symbols.computeIfAbsent(key, k -> new Symbol(this, k, slots.getAndIncrement()));
+    }
+
+    public int size() {
+        return slots.get();
+    }
+
+    /* The slot of the key, -1 if the template doesn't use it. */
+    public int slotOf(final String key) {
+        final Symbol symbol = symbols.get(key);
+        return symbol == null ? -1 : symbol.slot;
+    }
+
+    public static final class Symbol extends Key {
+        private final SymbolTable symbolTable;
+        private final int slot;
+
+        private Symbol(final SymbolTable symbolTable, final String key, final int slot) {
+            super(key);
+            this.symbolTable = symbolTable;
+            this.slot = slot;
+        }
+
+        public SymbolTable getSymbolTable() {
+            return symbolTable;
+        }
+
+        public int getSlot() {
+            return slot;
+        }
+    }
+}
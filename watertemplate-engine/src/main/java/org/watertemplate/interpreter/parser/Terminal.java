@@ -1,84 +1,116 @@
 package org.watertemplate.interpreter.parser;
 
-import org.watertemplate.interpreter.parser.exception.IncorrectLocationForToken;
-
-import java.util.function.Function;
-import java.util.regex.Pattern;
-
 enum Terminal implements GrammarSymbol {
 
-    IF(Keywords.IF::startsWith, Keywords.IF::equals),
-    IN(Keywords.IN::startsWith, Keywords.IN::equals),
-    FOR(Keywords.FOR::startsWith, Keywords.FOR::equals),
-    ELSE(Keywords.ELSE::startsWith, Keywords.ELSE::equals),
-    END_OF_BLOCK(Keywords.END_OF_BLOCK::startsWith, Keywords.END_OF_BLOCK::equals),
+    IF(Keywords.IF),
+    IN(Keywords.IN),
+    FOR(Keywords.FOR),
+    ELSE(Keywords.ELSE),
+    END_OF_BLOCK(Keywords.END_OF_BLOCK),
 
-    ACCESSOR(Keywords.ACCESSOR::equals),
-    COLON(Keywords.COLON::equals),
-    WAVE(Keywords.WAVE::equals),
+    ACCESSOR(Keywords.ACCESSOR),
+    COLON(Keywords.COLON),
+    WAVE(Keywords.WAVE),
 
-    BLANK(s -> s.trim().isEmpty()),
+    BLANK((c, position) -> c <= ' '),
 
-    PROPERTY_KEY(Terminal::propertyKeyPatternMatches) {
+    PROPERTY_KEY((c, position) -> isLetter(c) || (position > 0 && isDigit(c))) {
         @Override
-        public AbstractSyntaxTree buildAbstractSyntaxTree(final Token token) {
-            return new AbstractSyntaxTree.Id(token.getValue());
+        AbstractSyntaxTree leaf(final TokenStream tokenStream) {
+            return new AbstractSyntaxTree.Id(tokenStream.symbol(tokenStream.currentValue()));
         }
     },
 
-    TEXT(s -> s.length() == 1 || (!s.endsWith("\0") && !s.endsWith(Keywords.COLON) && !s.endsWith(Keywords.WAVE))) {
+    TEXT((c, position) -> position == 0 || (c != '\0' && c != ':' && c != '~')) {
         @Override
-        public AbstractSyntaxTree buildAbstractSyntaxTree(final Token token) {
-            return new AbstractSyntaxTree.Text(token.getValue());
+        AbstractSyntaxTree leaf(final TokenStream tokenStream) {
+            return new AbstractSyntaxTree.Text(tokenStream.currentValue(), tokenStream.currentBytes());
         }
     },
 
-    END_OF_INPUT("\0"::equals);
+    END_OF_INPUT("\0");
 
     //
 
-    private final static Pattern PROPERTY_KEY_PATTERN = Pattern.compile("^[a-zA-Z_][a-zA-Z0-9_]*$");
+    private final CharacterPredicate isCandidate;
+    private final int length;
+    final int bit;
 
-    private final Function<String, Boolean> isCandidate;
-    private final Function<String, Boolean> isAcceptable;
+    Terminal(final String keyword) {
+        this((c, position) -> position < keyword.length() && keyword.charAt(position) == c, keyword.length());
+    }
 
-    Terminal(final Function<String, Boolean> isCandidate) {
-        this(isCandidate, isCandidate);
+    Terminal(final CharacterPredicate isCandidate) {
+        this(isCandidate, -1);
     }
 
-    Terminal(final Function<String, Boolean> isCandidate, final Function<String, Boolean> isAcceptable) {
+    Terminal(final CharacterPredicate isCandidate, final int length) {
         this.isCandidate = isCandidate;
-        this.isAcceptable = isAcceptable;
+        this.length = length;
+        this.bit = 1 << ordinal();
+    }
+
+    /* Whether a token of this terminal can have c at the given position. */
+    final boolean isCandidateFrom(final char c, final int position) {
+        return isCandidate.test(c, position);
     }
 
-    public final Boolean isCandidateFrom(final String s) {
-        return isCandidate.apply(s);
+    /* Keywords are only acceptable once complete, every other terminal accepts any of its candidates. */
+    final boolean isAcceptableWithLength(final int length) {
+        return this.length == -1 || this.length == length;
     }
 
-    public final Boolean isAcceptableFrom(final String s) {
-        return isAcceptable.apply(s);
+    final boolean isIn(final int terminalSet) {
+        return (terminalSet & bit) != 0;
+    }
+
+    static int setOf(final Terminal... terminals) {
+        int terminalSet = 0;
+
+        for (Terminal terminal : terminals) {
+            terminalSet |= terminal.bit;
+        }
+
+        return terminalSet;
     }
 
     //
 
-    private static Boolean propertyKeyPatternMatches(final String s) {
-        return PROPERTY_KEY_PATTERN.matcher(s).matches();
+    private static boolean isLetter(final char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
     }
 
-    @Override
-    public final AbstractSyntaxTree buildAbstractSyntaxTree(final TokenStream tokenStream) {
-        Token current = tokenStream.current();
+    private static boolean isDigit(final char c) {
+        return c >= '0' && c <= '9';
+    }
 
-        if (!current.canBe(this)) {
-            throw new IncorrectLocationForToken(this, current);
+    @Override
+    public final AbstractSyntaxTree parse(final TokenStream tokenStream) {
+        if (!tokenStream.currentCanBeAnyOf(bit)) {
+            tokenStream.fail(this);
+            return null;
         }
 
+        final AbstractSyntaxTree leaf = leaf(tokenStream);
         tokenStream.shift();
-        return buildAbstractSyntaxTree(current);
+        return leaf;
+    }
+
+    @Override
+    public final int firstSet() {
+        return bit;
     }
 
-    AbstractSyntaxTree buildAbstractSyntaxTree(final Token current) {
+    @Override
+    public final Terminal leading() {
+        return this;
+    }
+
+    AbstractSyntaxTree leaf(final TokenStream tokenStream) {
         return AbstractSyntaxTree.EMPTY;
     }
 
+    interface CharacterPredicate {
+        boolean test(char c, int position);
+    }
 }
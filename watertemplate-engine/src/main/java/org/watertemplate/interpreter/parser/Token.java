@@ -1,20 +1,18 @@
 package org.watertemplate.interpreter.parser;
 
-import java.util.Collections;
-import java.util.List;
+import java.util.Arrays;
 
 public class Token {
     static final Token END_OF_INPUT = new Token("\0", Terminal.END_OF_INPUT);
 
     private final String value;
-    private final List<Terminal> possibleTerminals;
+    private final int possibleTerminals;
 
-    Token(final String value, final Terminal possibleTerminals) {
-        this.possibleTerminals = Collections.singletonList(possibleTerminals);
-        this.value = value;
+    Token(final String value, final Terminal... possibleTerminals) {
+        this(value, Terminal.setOf(possibleTerminals));
     }
 
-    Token(final String value, final List<Terminal> possibleTerminals) {
+    Token(final String value, final int possibleTerminals) {
         this.possibleTerminals = possibleTerminals;
         this.value = value;
     }
@@ -23,12 +21,16 @@ public class Token {
         return value;
     }
 
+    int getTerminalSet() {
+        return possibleTerminals;
+    }
+
     boolean canBe(final Terminal terminal) {
-        return possibleTerminals.contains(terminal);
+        return terminal.isIn(possibleTerminals);
     }
 
     @Override
     public String toString() {
-        return "[" + possibleTerminals.stream().map(Enum::toString).reduce((a, b) -> a + "|" + b).get() + "] -> [" + value + "]";
+        return "[" + Arrays.stream(Terminal.values()).filter(this::canBe).map(Enum::toString).reduce((a, b) -> a + "|" + b).get() + "] -> [" + value + "]";
     }
-}
\ No newline at end of file
+}
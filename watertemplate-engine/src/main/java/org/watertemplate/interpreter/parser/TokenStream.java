@@ -1,33 +1,133 @@
 package org.watertemplate.interpreter.parser;
 
+import org.watertemplate.interpreter.parser.exception.IncorrectLocationForToken;
 import org.watertemplate.interpreter.parser.exception.NoMoreTokensOnStreamException;
+import org.watertemplate.interpreter.parser.exception.ParseException;
 
 import java.util.Arrays;
-import java.util.List;
+import java.util.HashMap;
+import java.util.Map;
 
-class TokenStream {
-    private final List<Token> tokens;
+public class TokenStream {
+    static final int START = 0;
+    static final int LENGTH = 1;
+    static final int TERMINALS = 2;
+    static final int TOKEN_SIZE = 3;
+
+    private final Lexer lexer;
     private int currentTokenPosition;
+    private int furthestTokenPosition; // the furthest the parser looked since it last asked
+
+    // Positions the parser may still reset to; the lexer only keeps tokens from the oldest one on
+    private int[] marks = new int[16];
+    private int nMarks;
+
+    // The last terminal the parser expected and didn't find, which is what a failed parse reports
+    private Terminal expected;
+    private int failedTokenPosition;
+
+    private final SymbolTable symbolTable;
+
+    // Statements already parsed by a lookahead that failed, so going back doesn't parse them again
+    private final Map<Integer, Parsed> parsed = new HashMap<>();
+    private int lastParsed = -1;
 
     TokenStream(final Token... tokens) {
-        this(Arrays.asList(tokens));
+        this(new Lexer(tokens));
+    }
+
+    TokenStream(final Lexer lexer) {
+        this(lexer, new SymbolTable());
     }
 
-    TokenStream(final List<Token> tokens) {
-        this.tokens = tokens;
+    /* Successive parses of the same template share a symbol table, so arguments keep their slots from one to the next. */
+    TokenStream(final Lexer lexer, final SymbolTable symbolTable) {
+        this.lexer = lexer;
+        this.symbolTable = symbolTable;
         currentTokenPosition = 0;
     }
 
     boolean hasAny() {
-        return !tokens.isEmpty();
+        return lexer.has(0, firstNeededToken());
     }
 
     public Token current() throws NoMoreTokensOnStreamException {
-        if (currentTokenPosition >= tokens.size()) {
-            throw new NoMoreTokensOnStreamException();
+        final int token = currentToken();
+        return new Token(lexer.value(token), lexer.terminalSet(token));
+    }
+
+    /* Whether the current token can be any of the given terminals. There being no current token is not an error here. */
+    boolean currentCanBeAnyOf(final int terminalSet) {
+        if (currentTokenPosition > furthestTokenPosition) {
+            furthestTokenPosition = currentTokenPosition;
+        }
+
+        return lexer.has(currentTokenPosition, firstNeededToken()) && (lexer.terminalSet(currentTokenPosition) & terminalSet) != 0;
+    }
+
+    String currentValue() throws NoMoreTokensOnStreamException {
+        return lexer.value(currentToken());
+    }
+
+    byte[] currentBytes() throws NoMoreTokensOnStreamException {
+        return lexer.bytes(currentToken());
+    }
+
+    SymbolTable.Symbol symbol(final String key) {
+        return symbolTable.symbol(key);
+    }
+
+    /* Saves the current position so it can be reset to until released. Marks are released in reverse order. */
+    int mark() {
+        if (nMarks == marks.length) {
+            marks = Arrays.copyOf(marks, nMarks * 2);
+        }
+
+        marks[nMarks++] = currentTokenPosition;
+        return currentTokenPosition;
+    }
+
+    void release(final int mark) {
+        nMarks--;
+
+        if (nMarks == 0 && currentTokenPosition > lastParsed && !parsed.isEmpty()) {
+            parsed.clear();
         }
+    }
 
-        return tokens.get(currentTokenPosition);
+    /* Records that the given terminal was expected at the current position. */
+    void fail(final Terminal expected) {
+        this.expected = expected;
+        failedTokenPosition = currentTokenPosition;
+    }
+
+    /* What the last failure found instead of what it expected. */
+    ParseException failure() {
+        if (!lexer.has(failedTokenPosition, Math.min(failedTokenPosition, firstNeededToken()))) {
+            return new NoMoreTokensOnStreamException();
+        }
+
+        return new IncorrectLocationForToken(expected, new Token(lexer.value(failedTokenPosition), lexer.terminalSet(failedTokenPosition)));
+    }
+
+    /* The tree of what was parsed from the given position on, if it was and going back there is still possible. */
+    AbstractSyntaxTree parsed(final int position) {
+        final Parsed parsed = this.parsed.isEmpty() ? null : this.parsed.get(position);
+
+        if (parsed == null) {
+            return null;
+        }
+
+        currentTokenPosition = parsed.end;
+        furthestTokenPosition = Math.max(furthestTokenPosition, parsed.furthest);
+        return parsed.abstractSyntaxTree;
+    }
+
+    void parsed(final int position, final AbstractSyntaxTree abstractSyntaxTree) {
+        if (nMarks > 0) {
+            parsed.put(position, new Parsed(abstractSyntaxTree, currentTokenPosition, furthestTokenPosition));
+            lastParsed = Math.max(lastParsed, position);
+        }
     }
 
     public void reset(int save) {
@@ -39,10 +139,45 @@ class TokenStream {
     }
 
     public int remaining() {
-        return tokens.size() - currentTokenPosition;
+        return lexer.count(firstNeededToken()) - currentTokenPosition;
     }
 
     public int getCurrentTokenPosition() {
         return currentTokenPosition;
     }
+
+    /* The furthest token looked at since the last call, which is where what was parsed in between stops depending on. */
+    int furthest() {
+        final int furthest = furthestTokenPosition;
+        furthestTokenPosition = currentTokenPosition;
+        return furthest;
+    }
+
+    private int currentToken() {
+        if (currentTokenPosition > furthestTokenPosition) {
+            furthestTokenPosition = currentTokenPosition;
+        }
+
+        if (!lexer.has(currentTokenPosition, firstNeededToken())) {
+            throw new NoMoreTokensOnStreamException();
+        }
+
+        return currentTokenPosition;
+    }
+
+    private int firstNeededToken() {
+        return nMarks > 0 ? Math.min(marks[0], currentTokenPosition) : currentTokenPosition;
+    }
+
+    private static class Parsed {
+        private final AbstractSyntaxTree abstractSyntaxTree;
+        private final int end;
+        private final int furthest;
+
+        Parsed(final AbstractSyntaxTree abstractSyntaxTree, final int end, final int furthest) {
+            this.abstractSyntaxTree = abstractSyntaxTree;
+            this.end = end;
+            this.furthest = furthest;
+        }
+    }
 }
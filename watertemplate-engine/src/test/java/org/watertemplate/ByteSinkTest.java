@@ -0,0 +1,101 @@
+package org.watertemplate;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+
+public class ByteSinkTest {
+
+    private static final String TEXT = "a\u00e9\u4e2d\ud83d\ude00b"; // 1, 2, 3 and 4 bytes in UTF-8
+
+    @Test
+    public void encodesThroughASmallBuffer() throws IOException {
+        for (Charset charset : Arrays.asList(StandardCharsets.UTF_8, StandardCharsets.UTF_16)) {
+            final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            final ByteSink sink = ByteSink.of(stream, charset, ByteBuffer.allocate(8));
+
+            sink.append(TEXT).append(TEXT, 0, 4).append(TEXT, 4, TEXT.length()).append('!');
+            sink.append(TEXT, TEXT.getBytes(StandardCharsets.UTF_8));
+            sink.finish();
+
+            Assert.assertEquals(TEXT + TEXT + "!" + TEXT, new String(stream.toByteArray(), charset));
+        }
+    }
+
+    @Test
+    public void replacesWhatTheCharsetCannotEncode() throws IOException {
+        final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        final ByteSink sink = ByteSink.of(stream, StandardCharsets.ISO_8859_1, ByteBuffer.allocate(8));
+
+        sink.append(TEXT, 0, 4).append(TEXT, 4, TEXT.length());
+        sink.finish();
+
+        Assert.assertEquals("a\u00e9??b", new String(stream.toByteArray(), StandardCharsets.ISO_8859_1));
+    }
+
+    @Test
+    public void replacesLoneHighSurrogatesInPlace() throws IOException {
+        for (Charset charset : Arrays.asList(StandardCharsets.UTF_8, StandardCharsets.UTF_16BE)) {
+            final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            final ByteSink sink = ByteSink.of(stream, charset, ByteBuffer.allocate(8));
+
+            sink.append("a\ud83d").append("\ud83d\ude00b").append("\ud83d").append('x').append("\ud83d");
+            sink.append("c", "c".getBytes(StandardCharsets.UTF_8));
+            sink.finish();
+
+            final String replacement = new String(charset.newEncoder().replacement(), charset); // "?", or U+FFFD in UTF-16
+            Assert.assertEquals("a" + replacement + "\ud83d\ude00b" + replacement + "x" + replacement + "c", new String(stream.toByteArray(), charset));
+        }
+    }
+
+    @Test
+    public void appendsNullAsStringBuildersDo() throws IOException {
+        final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        final ByteSink sink = ByteSink.of(stream, StandardCharsets.UTF_8);
+
+        sink.append(null).append(null, 1, 3);
+        sink.finish();
+
+        Assert.assertEquals("nullul", new String(stream.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void writesToChannelsThroughDirectBuffers() throws IOException {
+        final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        final ByteSink sink = ByteSink.of(Channels.newChannel(stream), StandardCharsets.UTF_8, ByteBuffer.allocateDirect(6));
+
+        sink.append(TEXT).append(TEXT, TEXT.getBytes(StandardCharsets.UTF_8));
+        sink.finish();
+
+        Assert.assertArrayEquals((TEXT + TEXT).getBytes(StandardCharsets.UTF_8), stream.toByteArray());
+    }
+
+    @Test
+    public void reusedForAnotherRender() throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(8);
+        final Template template = new Template() {
+            @Override
+            protected String getFilePath() {
+                return "commands/templateWithOnlyText.html";
+            }
+        };
+
+        for (int i = 0; i < 2; i++) {
+            final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            final ByteSink sink = ByteSink.of(stream, StandardCharsets.UTF_8, buffer);
+
+            template.render(Locale.US, sink);
+            sink.finish();
+
+            Assert.assertEquals(template.render(), new String(stream.toByteArray(), StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package org.watertemplate;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class CompactMapTest {
+    @Test
+    public void empty() {
+        final CompactMap<String> map = new CompactMap<>();
+
+        Assert.assertEquals(0, map.size());
+        Assert.assertNull(map.get("foo"));
+    }
+
+    @Test
+    public void putReplaces() {
+        final CompactMap<String> map = new CompactMap<>();
+        map.put("foo", Key.hash("foo"), "bar");
+        map.put(new String("foo"), Key.hash("foo"), "baz");
+
+        Assert.assertEquals(1, map.size());
+        Assert.assertEquals("baz", map.get("foo"));
+    }
+
+    @Test
+    public void grows() {
+        final CompactMap<Integer> map = new CompactMap<>();
+
+        for (int i = 0; i < 1000; i++) {
+            map.put("key" + i, Key.hash("key" + i), i);
+        }
+
+        Assert.assertEquals(1000, map.size());
+
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertEquals(Integer.valueOf(i), map.get("key" + i));
+        }
+
+        Assert.assertNull(map.get("key1000"));
+    }
+
+    @Test
+    public void collidingHashes() {
+        final CompactMap<String> map = new CompactMap<>();
+        map.put("Aa", 0, "Aa"); // the same slot, then the same hash too
+        map.put("BB", 0, "BB");
+        map.put("C", 8, "C");
+
+        Assert.assertEquals("Aa", map.get("Aa", 0));
+        Assert.assertEquals("BB", map.get("BB", 0));
+        Assert.assertEquals("C", map.get("C", 8));
+        Assert.assertNull(map.get("D", 0));
+    }
+
+    @Test
+    public void forEachAndPutAll() {
+        final CompactMap<String> map = new CompactMap<>();
+        map.put("foo", Key.hash("foo"), "1");
+        map.put("bar", Key.hash("bar"), "2");
+
+        final CompactMap<String> copy = new CompactMap<>();
+        copy.putAll(map);
+
+        final Map<String, String> entries = new HashMap<>();
+        copy.forEach(entries::put);
+
+        Assert.assertEquals(2, entries.size());
+        Assert.assertEquals("1", entries.get("foo"));
+        Assert.assertEquals("2", entries.get("bar"));
+    }
+}
@@ -4,6 +4,12 @@ import org.junit.Assert;
 import org.junit.Test;
 import org.watertemplate.Template;
 import org.watertemplate.TemplateMap;
+import org.watertemplate.exception.RenderException;
+
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class LazySubtemplatesTest {
 
@@ -53,4 +59,122 @@ public class LazySubtemplatesTest {
         Assert.assertEquals("\nrendered\n", lazyTemplate.render());
         Assert.assertEquals(2, lazyTemplate.subTemplate.timesRendered);
     }
+
+    @Test
+    public void concurrentSubTemplates() {
+        final CyclicBarrier bothRendering = new CyclicBarrier(2);
+
+        class ConcurrentSubTemplate extends Template {
+            @Override
+            protected void addSubTemplates(TemplateMap.SubTemplates subTemplates) {
+                try {
+                    // only passes if the other sub template renders at the same time
+                    bothRendering.await(10, TimeUnit.SECONDS);
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+
+            @Override
+            protected String getFilePath() {
+                return "lazy_sub_templates/sub_template.html";
+            }
+        }
+
+        class ConcurrentTemplate extends Template {
+            @Override
+            protected void addSubTemplates(TemplateMap.SubTemplates subTemplates) {
+                subTemplates.addConcurrent("first", new ConcurrentSubTemplate());
+                subTemplates.addConcurrent("second", new ConcurrentSubTemplate());
+                subTemplates.add("third", new ConcurrentSubTemplate()); // in a false if: never rendered
+            }
+
+            @Override
+            protected String getFilePath() {
+                return "lazy_sub_templates/concurrent.html";
+            }
+
+            ConcurrentTemplate() {
+                add("render_third", false);
+            }
+        }
+
+        Assert.assertEquals("rendered rendered ", new ConcurrentTemplate().render());
+        Assert.assertEquals(0, bothRendering.getNumberWaiting());
+    }
+
+    @Test
+    public void concurrentSubTemplatesOnlyStartWhenEveryRenderReachesThem() {
+        final AtomicInteger timesRendered = new AtomicInteger();
+
+        class FailingSubTemplate extends Template {
+            @Override
+            protected void addSubTemplates(TemplateMap.SubTemplates subTemplates) {
+                timesRendered.incrementAndGet();
+                throw new IllegalStateException("failing sub template");
+            }
+
+            @Override
+            protected String getFilePath() {
+                return "lazy_sub_templates/sub_template.html";
+            }
+        }
+
+        class ConcurrentTemplate extends Template {
+            private final String failingId;
+
+            ConcurrentTemplate(final String failingId) {
+                this.failingId = failingId;
+                add("render_third", false);
+            }
+
+            @Override
+            protected void addSubTemplates(TemplateMap.SubTemplates subTemplates) {
+                subTemplates.add("first", new Rendered());
+                subTemplates.add("second", new Rendered());
+                subTemplates.add("third", new Rendered());
+                subTemplates.addConcurrent(failingId, new FailingSubTemplate());
+            }
+
+            @Override
+            protected Executor getExecutor() {
+                return Runnable::run; // a sub template started is done before the template renders
+            }
+
+            @Override
+            protected String getFilePath() {
+                return "lazy_sub_templates/concurrent.html";
+            }
+        }
+
+        // Not in the template: never rendered, so it can't fail it
+        Assert.assertEquals("rendered rendered ", new ConcurrentTemplate("fourth").render());
+        Assert.assertEquals(0, timesRendered.get());
+
+        // In a false if: never rendered either, the branch not being taken
+        Assert.assertEquals("rendered rendered ", new ConcurrentTemplate("third").render());
+        Assert.assertEquals(0, timesRendered.get());
+
+        // Reached by every render: started, and its failure is the render's
+        try {
+            new ConcurrentTemplate("second").render();
+            Assert.fail();
+        } catch (RenderException e) {
+            Assert.assertEquals(1, timesRendered.get());
+
+            Throwable cause = e;
+            while (cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+
+            Assert.assertEquals("failing sub template", cause.getMessage());
+        }
+    }
+
+    private static class Rendered extends Template {
+        @Override
+        protected String getFilePath() {
+            return "lazy_sub_templates/sub_template.html";
+        }
+    }
 }
@@ -2,11 +2,21 @@ package org.watertemplate;
 
 import org.junit.Assert;
 import org.junit.Test;
+import org.watertemplate.interpreter.parser.SymbolTable;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class TemplateMapTest {
     @Test
@@ -69,6 +79,160 @@ public class TemplateMapTest {
 
     }
 
+    @Test
+    public void mappedLazily() {
+        final AtomicInteger mappings = new AtomicInteger();
+        final TemplateObject.Mapped<String> mapped = new TemplateObject.Mapped<>("foo", (string, stringMap) -> {
+            mappings.incrementAndGet();
+            stringMap.add("upper", string.toUpperCase());
+        });
+
+        Assert.assertEquals("foo", mapped.evaluate(Locale.US));
+        Assert.assertEquals(0, mappings.get());
+
+        Assert.assertEquals("FOO", getValue(mapped.map(), "upper"));
+        Assert.assertEquals("FOO", getValue(mapped.map(), "upper"));
+        Assert.assertEquals(1, mappings.get());
+    }
+
+    @Test
+    public void mappedOnceByConcurrentLookups() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+
+        try {
+            for (int i = 0; i < 100; i++) {
+                final AtomicInteger mappings = new AtomicInteger();
+                final CountDownLatch start = new CountDownLatch(1);
+                final TemplateObject.Mapped<String> mapped = new TemplateObject.Mapped<>("foo", (string, stringMap) -> {
+                    mappings.incrementAndGet();
+                    stringMap.add("upper", string.toUpperCase());
+                });
+
+                final List<Future<TemplateMap.Arguments>> lookups = new ArrayList<>();
+
+                for (int j = 0; j < 8; j++) {
+                    lookups.add(executor.submit(() -> {
+                        start.await();
+                        return mapped.map();
+                    }));
+                }
+
+                start.countDown();
+
+                for (Future<TemplateMap.Arguments> lookup : lookups) {
+                    Assert.assertSame(lookups.get(0).get(), lookup.get());
+                }
+
+                Assert.assertEquals(1, mappings.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void key() {
+        final Key foo = Key.of("foo");
+        final TemplateMap.Arguments arguments = new TemplateMap.Arguments();
+        arguments.add(foo, "bar");
+
+        Assert.assertEquals("bar", arguments.get("foo").evaluate(Locale.US));
+        Assert.assertEquals("bar", arguments.frame().get(foo).evaluate(Locale.US));
+        Assert.assertNull(arguments.get(Key.of("bar")));
+    }
+
+    @Test
+    public void symbolsAddedConcurrentlyGetSlotsOfTheirOwn() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+
+        try {
+            for (int round = 0; round < 20; round++) {
+                final SymbolTable symbolTable = new SymbolTable();
+                final CountDownLatch start = new CountDownLatch(1);
+                final List<Future<Integer>> slots = new ArrayList<>();
+
+                for (int i = 0; i < 1000; i++) {
+                    final String key = "key" + i;
+                    slots.add(executor.submit(() -> {
+                        start.await();
+                        return symbolTable.symbol(key).getSlot();
+                    }));
+                }
+
+                start.countDown();
+                final Set<Integer> distinct = new HashSet<>();
+
+                for (Future<Integer> slot : slots) {
+                    Assert.assertTrue(distinct.add(slot.get()));
+                }
+
+                Assert.assertEquals(1000, symbolTable.size());
+                Assert.assertEquals(999, (int) Collections.max(distinct));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void concurrentLookupsBySymbol() throws Exception {
+        final SymbolTable symbolTable = new SymbolTable();
+        final List<SymbolTable.Symbol> symbols = new ArrayList<>();
+        final TemplateMap.Arguments arguments = new TemplateMap.Arguments();
+
+        for (int i = 0; i < 100; i++) {
+            symbols.add(symbolTable.symbol("key" + i));
+            arguments.add("key" + i, "value" + i);
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try {
+            final List<Future<Boolean>> lookups = new ArrayList<>();
+
+            for (int n = 0; n < 8; n++) {
+                lookups.add(executor.submit(() -> {
+                    for (int round = 0; round < 100; round++) {
+                        for (int i = 0; i < symbols.size(); i++) {
+                            if (!("value" + i).equals(arguments.get(symbols.get(i)).evaluate(Locale.US))) {
+                                return false;
+                            }
+                        }
+                    }
+
+                    return true;
+                }));
+            }
+
+            for (Future<Boolean> lookup : lookups) {
+                Assert.assertTrue(lookup.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        arguments.add("key0", "added");
+        Assert.assertEquals("added", arguments.get(symbols.get(0)).evaluate(Locale.US));
+        Assert.assertEquals("value1", arguments.get(symbolTable.symbol("key1")).evaluate(Locale.US));
+    }
+
+    @Test
+    public void frame() {
+        TemplateMap.Arguments arguments = new TemplateMap.Arguments();
+        arguments.add("foo", "bar");
+        arguments.add("item", "outer");
+
+        TemplateMap.Arguments frame = arguments.frame();
+        frame.add("item", "inner");
+
+        Assert.assertEquals(1, frame.map.size());
+        Assert.assertEquals("bar", frame.get("foo").evaluate(Locale.US));
+        Assert.assertEquals("inner", frame.get("item").evaluate(Locale.US));
+        Assert.assertEquals("outer", arguments.get("item").evaluate(Locale.US));
+        Assert.assertEquals("bar", new TemplateMap.Arguments(frame.frame()).get("foo").evaluate(Locale.US));
+        Assert.assertNull(frame.get("nothing"));
+    }
+
     private Collection<Character> getChars(final String string) {
         Collection<Character> chars = new ArrayList<>();
 
@@ -0,0 +1,49 @@
+package org.watertemplate.interpreter;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class WarmupTest {
+
+    @Test
+    public void warmUp() {
+        final Map<String, Duration> timings = WaterInterpreter.warmUp();
+
+        assertEquals(16, timings.size());
+        assertTrue(timings.containsKey("en_US/commands/templateWithFor.html"));
+        assertTrue(timings.containsKey("en_US/nested/masterTemplate.html"));
+    }
+
+    @Test
+    public void templateFilesInJars() throws IOException {
+        final File jar = File.createTempFile("templates", ".jar");
+        jar.deleteOnExit();
+
+        try (final JarOutputStream stream = new JarOutputStream(new FileOutputStream(jar))) {
+            for (String entry : Arrays.asList("templates/", "templates/en_US/", "templates/en_US/a.html", "templates/en_US/a.html.ast",
+                    "templates/pt/b/c.html", "templates/notALocale/d.html", "templates/e.html", "other/en_US/f.html")) {
+                stream.putNextEntry(new JarEntry(entry));
+                stream.write("~x~".getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        try (final URLClassLoader classLoader = new URLClassLoader(new URL[]{jar.toURI().toURL()}, null)) {
+            assertEquals(new TreeSet<>(Arrays.asList("en_US/a.html", "pt/b/c.html")), Warmup.templateFiles(classLoader));
+        }
+    }
+}
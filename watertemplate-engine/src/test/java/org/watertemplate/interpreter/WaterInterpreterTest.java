@@ -0,0 +1,37 @@
+package org.watertemplate.interpreter;
+
+import org.junit.Test;
+import org.watertemplate.TemplateMap;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+
+public class WaterInterpreterTest {
+
+    private static final Locale locale = Locale.US;
+
+    @Test
+    public void truncatedSerializedTree() throws IOException, URISyntaxException {
+        final WaterInterpreter waterInterpreter = new DefaultWaterInterpreter("commands/templateWithOnlyText.html", locale);
+        final File templateFile = new File(waterInterpreter.templateFileWith(locale).toURI());
+        final File serialized = new File(templateFile.getPath() + WaterInterpreter.SERIALIZED_EXTENSION);
+
+        final byte[] bytes = waterInterpreter.loadTemplateFileWith(locale).serialize();
+        Files.write(serialized.toPath(), Arrays.copyOf(bytes, bytes.length / 2));
+        serialized.setLastModified(templateFile.lastModified() + 1000);
+
+        try {
+            final TemplateMap.Arguments arguments = new TemplateMap.Arguments();
+            assertEquals(new String(Files.readAllBytes(templateFile.toPath()), WaterInterpreter.CHARSET),
+                    waterInterpreter.loadTemplateFileWith(locale).string(arguments, locale));
+        } finally {
+            Files.delete(serialized.toPath());
+        }
+    }
+}
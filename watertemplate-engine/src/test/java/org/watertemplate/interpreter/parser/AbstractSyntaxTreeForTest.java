@@ -2,14 +2,27 @@ package org.watertemplate.interpreter.parser;
 
 import org.junit.Test;
 import org.watertemplate.TemplateMap;
+import org.watertemplate.TemplateObject;
 import org.watertemplate.exception.InvalidTemplateObjectEvaluationException;
 import org.watertemplate.interpreter.parser.exception.IdCouldNotBeResolvedException;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class AbstractSyntaxTreeForTest {
 
@@ -57,6 +70,151 @@ public class AbstractSyntaxTreeForTest {
         assertEquals("", result);
     }
 
+    @Test
+    public void forOverIterablesStreamsAndIterators() {
+        TemplateMap.Arguments arguments = new TemplateMap.Arguments();
+        AbstractSyntaxTree abs =
+                new AbstractSyntaxTree.For("x", new AbstractSyntaxTree.Id("collection"),
+                        new AbstractSyntaxTree.Id("x", new AbstractSyntaxTree.Id("upper")),
+                        new AbstractSyntaxTree.Text("collection has no elements"));
+
+        final Iterable<String> iterable = () -> Arrays.asList("a", "b").iterator();
+        arguments.addCollection("collection", iterable, (letter, map) -> map.add("upper", letter.toUpperCase()));
+        assertEquals("AB", abs.string(arguments, locale));
+        assertEquals("AB", abs.string(arguments, locale));
+
+        arguments.addStream("collection", Stream.of("c", "d"), (letter, map) -> map.add("upper", letter.toUpperCase()));
+        assertEquals("CD", abs.string(arguments, locale));
+
+        arguments.addIterator("collection", Arrays.asList("e", "f").iterator(), (letter, map) -> map.add("upper", letter.toUpperCase()));
+        assertEquals("EF", abs.string(arguments, locale));
+
+        arguments.addStream("collection", Stream.empty());
+        assertEquals("collection has no elements", abs.string(arguments, locale));
+    }
+
+    @Test
+    public void streamsAreReadAsTheyRender() throws IOException {
+        TemplateMap.Arguments arguments = new TemplateMap.Arguments();
+        AbstractSyntaxTree abs =
+                new AbstractSyntaxTree.For("x", new AbstractSyntaxTree.Id("collection"),
+                        new AbstractSyntaxTree.Id("x"));
+
+        final StringBuilder out = new StringBuilder();
+        arguments.addStream("collection", Stream.of("a", "b", "c").peek(item -> out.append('<')));
+
+        abs.render(arguments, locale, out);
+        assertEquals("<a<b<c", out.toString());
+    }
+
+    @Test
+    public void iterablesRenderedAtTheSameTime() throws InterruptedException, ExecutionException {
+        TemplateMap.Arguments arguments = new TemplateMap.Arguments();
+        AbstractSyntaxTree abs =
+                new AbstractSyntaxTree.For("x", new AbstractSyntaxTree.Id("collection"),
+                        new AbstractSyntaxTree.Id("x"));
+
+        final Iterable<String> iterable = () -> Arrays.asList("a", "b", "c").iterator();
+        arguments.addCollection("collection", iterable);
+
+        final Renderer compiled = abs.compile();
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try {
+            final List<Future<String>> renders = new ArrayList<>();
+
+            for (int i = 0; i < 1000; i++) {
+                renders.add(executor.submit(() -> abs.string(arguments, locale)));
+                renders.add(executor.submit(() -> compiled.string(arguments, locale)));
+            }
+
+            for (Future<String> render : renders) {
+                assertEquals("abc", render.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void streamsLookedIntoOrCollectedStillRender() {
+        TemplateMap.Arguments arguments = new TemplateMap.Arguments();
+        AbstractSyntaxTree abs =
+                new AbstractSyntaxTree.For("x", new AbstractSyntaxTree.Id("collection"),
+                        new AbstractSyntaxTree.Id("x"));
+
+        arguments.addStream("collection", Stream.of("a", "b"));
+        final TemplateObject.Collection<?> collection = (TemplateObject.Collection<?>) arguments.get("collection");
+
+        assertFalse(collection.isEmpty());
+        assertFalse(collection.isEmpty());
+        assertEquals("ab", abs.string(arguments, locale));
+
+        arguments.addStream("collection", Stream.of("c", "d"));
+        assertEquals(Arrays.asList("c", "d"), ((TemplateObject.Collection<?>) arguments.get("collection")).getCollection());
+        assertEquals("cd", abs.string(arguments, locale));
+        assertEquals("cd", abs.string(arguments, locale));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void streamsAreLoopedOverOnlyOnce() {
+        TemplateMap.Arguments arguments = new TemplateMap.Arguments();
+        AbstractSyntaxTree abs =
+                new AbstractSyntaxTree.For("x", new AbstractSyntaxTree.Id("collection"),
+                        new AbstractSyntaxTree.Id("x"));
+
+        arguments.addStream("collection", Stream.of("a", "b"));
+        abs.string(arguments, locale);
+        abs.string(arguments, locale);
+    }
+
+    @Test
+    public void parallelStreamsRenderInOrder() {
+        TemplateMap.Arguments arguments = new TemplateMap.Arguments();
+        AbstractSyntaxTree abs =
+                new AbstractSyntaxTree.For("x", new AbstractSyntaxTree.Id("collection"),
+                        new AbstractSyntaxTree.Statements(Arrays.asList(
+                                new AbstractSyntaxTree.Id("x", new AbstractSyntaxTree.Id("square")),
+                                new AbstractSyntaxTree.Text(","))));
+
+        final StringBuilder expected = new StringBuilder();
+        IntStream.range(0, 10000).forEach(i -> expected.append(i * i).append(','));
+
+        arguments.addStream("collection", IntStream.range(0, 10000).boxed().parallel(), (i, map) -> map.add("square", String.valueOf(i * i)));
+        assertEquals(expected.toString(), abs.string(arguments, locale));
+        assertEquals(expected.toString(), abs.compile().string(arguments, locale));
+
+        arguments.addStream("collection", Stream.<Integer>empty().parallel());
+        assertEquals("", abs.string(arguments, locale));
+    }
+
+    @Test
+    public void parallelStreamsStopWhenAChunkFails() {
+        TemplateMap.Arguments arguments = new TemplateMap.Arguments();
+        AbstractSyntaxTree abs =
+                new AbstractSyntaxTree.For("x", new AbstractSyntaxTree.Id("collection"),
+                        new AbstractSyntaxTree.Id("x", new AbstractSyntaxTree.Id("square")));
+
+        final AtomicInteger mapped = new AtomicInteger();
+        arguments.addStream("collection", IntStream.range(0, 100000).boxed().parallel(), (i, map) -> {
+            if (i == 0) {
+                throw new IllegalStateException("first item");
+            }
+
+            mapped.incrementAndGet();
+            map.add("square", String.valueOf(i * i));
+        });
+
+        try {
+            abs.string(arguments, locale);
+            fail();
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().endsWith("first item")); // rethrown as is, or wrapped by join in one of its kind
+        }
+
+        assertTrue(String.valueOf(mapped.get()), mapped.get() < 99999);
+    }
+
     @Test
     public void forUsingItsVariable() {
         TemplateMap.Arguments arguments = new TemplateMap.Arguments();
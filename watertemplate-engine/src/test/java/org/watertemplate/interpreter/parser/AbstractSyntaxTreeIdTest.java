@@ -86,4 +86,29 @@ public class AbstractSyntaxTreeIdTest {
         Object result = abs.string(new TemplateMap.Arguments(), locale);
         assertEquals("prop_key", result);
     }
+
+    @Test
+    public void idsLookedUpBySlot() {
+        SymbolTable symbolTable = new SymbolTable();
+        AbstractSyntaxTree key = new AbstractSyntaxTree.Id(symbolTable.symbol("key"));
+        AbstractSyntaxTree nested = new AbstractSyntaxTree.Id(new AbstractSyntaxTree.Id(symbolTable.symbol("prop_key")),
+                new AbstractSyntaxTree.Id(symbolTable.symbol("key")));
+
+        TemplateMap.Arguments arguments = new TemplateMap.Arguments();
+        arguments.add("key", "1");
+        arguments.addMappedObject("prop_key", null, (ignore, map) -> map.add("key", "nested"));
+
+        assertEquals("1", key.string(arguments, locale));
+        assertEquals("1", key.string(arguments, locale));
+        assertEquals("nested", nested.string(arguments, locale));
+
+        arguments.add("key", "2");
+        assertEquals("2", key.string(arguments, locale));
+        assertEquals("2", new AbstractSyntaxTree.Id(new SymbolTable().symbol("key")).string(arguments, locale));
+    }
+
+    @Test(expected = IdCouldNotBeResolvedException.class)
+    public void compiledPropertyNotPresentInArguments() {
+        new AbstractSyntaxTree.Id(new SymbolTable().symbol("prop_key")).compile().string(new TemplateMap.Arguments(), locale);
+    }
 }
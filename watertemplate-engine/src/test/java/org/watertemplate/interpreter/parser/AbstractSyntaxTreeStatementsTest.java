@@ -3,10 +3,14 @@ package org.watertemplate.interpreter.parser;
 import org.junit.Test;
 import org.watertemplate.TemplateMap;
 
+import java.io.StringReader;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Locale;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
 public class AbstractSyntaxTreeStatementsTest {
 
@@ -43,6 +47,56 @@ public class AbstractSyntaxTreeStatementsTest {
 
         Object result = abs.string(arguments, locale);
         assertEquals("line 1\nline 2\nrandom text\ncondition was true\n1\n4\n9\n16", result);
+        assertEquals(result, abs.compile().string(arguments, locale));
     }
 
+    @Test
+    public void compiledStatements() {
+        AbstractSyntaxTree abs = new Parser().parse(new Lexer().lex(new StringReader(
+                "~x~ ~if c: ~for i in l: <~i.v~> :~ :else: no :~ ~for i in e: x :else: ~if d: d :else: ~x~~x~~x~~x~ :~ :~")));
+
+        TemplateMap.Arguments arguments = new TemplateMap.Arguments();
+        arguments.add("x", "x");
+        arguments.add("c", true);
+        arguments.add("d", false);
+        arguments.addCollection("l", Arrays.asList(1, 2), (i, map) -> map.add("v", i.toString()));
+        arguments.addCollection("e", Arrays.asList());
+
+        assertEquals("x   <1>  <2>     xxxx  ", abs.compile().string(arguments, locale));
+        assertEquals(abs.string(arguments, locale), abs.optimize().compile().string(arguments, locale));
+        assertEquals(new HashSet<>(Arrays.asList("x", "e")), abs.ids()); // not those under the if or in the loops
+    }
+
+    @Test
+    public void optimizedStatements() {
+        AbstractSyntaxTree abs =
+                new AbstractSyntaxTree.Statements(
+                        Arrays.asList(
+                                new AbstractSyntaxTree.Text("a"),
+                                new AbstractSyntaxTree.Text(":"),
+                                AbstractSyntaxTree.EMPTY,
+                                new AbstractSyntaxTree.Text("\u00e9"),
+                                new AbstractSyntaxTree.Id("x"),
+                                new AbstractSyntaxTree.If(new AbstractSyntaxTree.Id("condition"),
+                                        new AbstractSyntaxTree.Statements(Arrays.asList(
+                                                new AbstractSyntaxTree.Text("~"),
+                                                new AbstractSyntaxTree.Text("b")))
+                                ),
+                                new AbstractSyntaxTree.Text("c")
+                        )).optimize();
+
+        TemplateMap.Arguments arguments = new TemplateMap.Arguments();
+        arguments.add("x", "x");
+        arguments.add("condition", true);
+
+        assertEquals("a:\u00e9x~bc", abs.string(arguments, locale));
+        assertEquals(4, abs.staticSize()); // chars, not the 5 bytes of "a:\u00e9c" in UTF-8
+
+        AbstractSyntaxTree.Text text = (AbstractSyntaxTree.Text) new AbstractSyntaxTree.Statements(Arrays.asList(
+                new AbstractSyntaxTree.Text("a"),
+                new AbstractSyntaxTree.Text("\u00e9"))).optimize();
+
+        assertArrayEquals(new AbstractSyntaxTree.Text("a\u00e9").getBytes(), text.getBytes());
+        assertSame(AbstractSyntaxTree.EMPTY, new AbstractSyntaxTree.Statements(Arrays.asList(AbstractSyntaxTree.EMPTY)).optimize());
+    }
 }
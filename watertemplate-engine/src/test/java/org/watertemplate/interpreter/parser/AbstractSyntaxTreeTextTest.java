@@ -5,6 +5,7 @@ import org.watertemplate.TemplateMap;
 
 import java.util.Locale;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 public class AbstractSyntaxTreeTextTest {
@@ -18,4 +19,11 @@ public class AbstractSyntaxTreeTextTest {
 
         assertEquals("text", result);
     }
+
+    @Test
+    public void encodedText() {
+        AbstractSyntaxTree.Text text = new AbstractSyntaxTree.Text("\u00e7\u2713");
+
+        assertArrayEquals(new byte[]{(byte) 0xC3, (byte) 0xA7, (byte) 0xE2, (byte) 0x9C, (byte) 0x93}, text.getBytes());
+    }
 }
\ No newline at end of file
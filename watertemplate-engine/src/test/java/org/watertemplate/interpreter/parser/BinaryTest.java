@@ -0,0 +1,126 @@
+package org.watertemplate.interpreter.parser;
+
+import org.junit.Test;
+import org.watertemplate.TemplateMap;
+
+import java.io.StreamCorruptedException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Locale;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class BinaryTest {
+
+    private static final Locale locale = Locale.US;
+
+    @Test
+    public void commands() throws StreamCorruptedException {
+        assertDeserializedRendersLikeTheTree(
+                "<h1>~title~</h1>\n" +
+                "~for month in months:\n" +
+                "    <li class=\"~if month.leap: leap :else: regular :~\">~month.name~ ~for day in month.days: ~day~ :~</li>\n" +
+                ":else:\n" +
+                "    nothing\n" +
+                ":~ ~for month in none: x :else: ~if missing: no :else: é :~ :~ ~if missing: :~");
+    }
+
+    @Test
+    public void largeTemplate() throws StreamCorruptedException {
+        final StringBuilder template = new StringBuilder();
+
+        for (int i = 0; i < 5000; i++) {
+            template.append("<li>~title~ ~if missing: ~title~ :~</li>\n");
+        }
+
+        assertDeserializedRendersLikeTheTree(template.toString());
+    }
+
+    @Test
+    public void textBytes() throws StreamCorruptedException {
+        final AbstractSyntaxTree.Text text = (AbstractSyntaxTree.Text) AbstractSyntaxTree.deserialize(parse("é中").optimize().serialize());
+        assertArrayEquals("é中".getBytes(StandardCharsets.UTF_8), text.getBytes());
+    }
+
+    @Test
+    public void otherVersion() {
+        final byte[] bytes = parse("~title~").serialize();
+        bytes[4]++;
+
+        assertCorrupted(bytes);
+        assertCorrupted("<h1>~title~</h1>".getBytes());
+    }
+
+    @Test
+    public void truncated() {
+        final byte[] bytes = parse("<h1>~title~</h1> ~for month in months: ~month.name~ :~").serialize();
+
+        for (int length = 0; length < bytes.length; length++) {
+            assertCorrupted(Arrays.copyOf(bytes, length));
+        }
+    }
+
+    @Test
+    public void damaged() {
+        final byte[] bytes = parse("<h1>~title~</h1> ~if missing: x :~").serialize();
+
+        for (int i = 5; i < bytes.length; i++) {
+            final byte[] damaged = bytes.clone();
+            damaged[i] = (byte) 0xFF;
+
+            try {
+                AbstractSyntaxTree.deserialize(damaged);
+            } catch (StreamCorruptedException e) {
+                // the only way it may fail
+            }
+        }
+
+        assertCorrupted(Arrays.copyOf(bytes, bytes.length + 1));
+    }
+
+    private void assertCorrupted(final byte[] bytes) {
+        try {
+            AbstractSyntaxTree.deserialize(bytes);
+            fail(Arrays.toString(bytes));
+        } catch (StreamCorruptedException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void empty() throws StreamCorruptedException {
+        assertEquals(AbstractSyntaxTree.EMPTY, AbstractSyntaxTree.deserialize(parse("").serialize()));
+    }
+
+    private void assertDeserializedRendersLikeTheTree(final String template) throws StreamCorruptedException {
+        final AbstractSyntaxTree abstractSyntaxTree = parse(template);
+
+        assertEquals(abstractSyntaxTree.string(arguments(), locale),
+                AbstractSyntaxTree.deserialize(abstractSyntaxTree.serialize()).string(arguments(), locale));
+        assertEquals(abstractSyntaxTree.string(arguments(), locale),
+                AbstractSyntaxTree.deserialize(abstractSyntaxTree.optimize().serialize()).string(arguments(), locale));
+    }
+
+    private AbstractSyntaxTree parse(final String template) {
+        return new Parser().parse(new Lexer().lex(new StringReader(template)));
+    }
+
+    private TemplateMap.Arguments arguments() {
+        final TemplateMap.Arguments arguments = new TemplateMap.Arguments();
+        arguments.add("title", "Months");
+        arguments.add("missing", false);
+        arguments.addCollection("none", Collections.emptyList());
+        arguments.addMappedObject("month", "", (month, map) -> map.add("name", "January"));
+        arguments.addCollection("months", Arrays.asList(28, 31), (days, map) -> {
+            map.add("name", days + " days");
+            map.add("leap", days == 29);
+            map.addCollection("days", Arrays.asList("1", "2", "3"));
+        });
+
+        return arguments;
+    }
+}
@@ -0,0 +1,103 @@
+package org.watertemplate.interpreter.parser;
+
+import org.junit.Test;
+import org.watertemplate.ByteSink;
+import org.watertemplate.TemplateMap;
+import org.watertemplate.interpreter.parser.exception.IdCouldNotBeResolvedException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BytecodeTest {
+
+    private static final Locale locale = Locale.US;
+
+    @Test
+    public void commands() {
+        assertGeneratedRendersLikeTheTree(
+                "<h1>~title~</h1>\n" +
+                "~for month in months:\n" +
+                "    <li class=\"~if month.leap: leap :else: regular :~\">~month.name~ ~for day in month.days: ~day~ :~</li>\n" +
+                ":else:\n" +
+                "    nothing\n" +
+                ":~ ~for month in none: x :else: ~if missing: no :else: é :~ :~");
+    }
+
+    @Test
+    public void parallelLoop() {
+        assertGeneratedRendersLikeTheTree("~for year in years: ~year.name~ ~for month in months: ~month.name~ :~ :~");
+    }
+
+    @Test
+    public void largeTemplate() {
+        final StringBuilder template = new StringBuilder();
+
+        for (int i = 0; i < 5000; i++) {
+            template.append("<li>~title~ ~if missing: ~title~ :~</li>\n");
+        }
+
+        assertGeneratedRendersLikeTheTree(template.toString());
+    }
+
+    @Test
+    public void textToByteSinks() throws IOException {
+        final char[] filler = new char[0x3FFE];
+        Arrays.fill(filler, 'a');
+        final String template = new String(filler) + "\ud83d\ude00 \u00e9 ~title~"; // a surrogate pair across two constants
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ByteSink sink = ByteSink.of(bytes, StandardCharsets.UTF_8);
+        parse(template).optimize().generate("test").render(arguments(), locale, sink);
+        sink.finish();
+
+        assertEquals(parse(template).string(arguments(), locale), new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void unresolvedNestedId() {
+        try {
+            parse("~title~ ~month.name.first~").generate("unresolved").string(arguments(), locale);
+            fail();
+        } catch (IdCouldNotBeResolvedException e) {
+            assertEquals("\"month.name.first\" could not be resolved.", e.getMessage());
+        }
+    }
+
+    private void assertGeneratedRendersLikeTheTree(final String template) {
+        final AbstractSyntaxTree abstractSyntaxTree = parse(template);
+        final Renderer renderer = abstractSyntaxTree.optimize().generate("test");
+
+        assertTrue(renderer.getClass().getName().startsWith("WaterTemplate$"));
+        assertEquals(abstractSyntaxTree.string(arguments(), locale), renderer.string(arguments(), locale));
+    }
+
+    private AbstractSyntaxTree parse(final String template) {
+        return new Parser().parse(new Lexer().lex(new StringReader(template)));
+    }
+
+    private TemplateMap.Arguments arguments() {
+        final TemplateMap.Arguments arguments = new TemplateMap.Arguments();
+        arguments.add("title", "Months");
+        arguments.add("missing", false);
+        arguments.addCollection("none", Collections.emptyList());
+        arguments.addMappedObject("month", "", (month, map) -> map.add("name", "January"));
+        arguments.addCollection("months", Arrays.asList(28, 31), (days, map) -> {
+            map.add("name", days + " days");
+            map.add("leap", days == 29);
+            map.addCollection("days", Arrays.asList("1", "2", "3"));
+        });
+        arguments.addStream("years", IntStream.range(1900, 2100).boxed().parallel(), (year, map) -> map.add("name", year.toString()));
+
+        return arguments;
+    }
+}
@@ -0,0 +1,126 @@
+package org.watertemplate.interpreter.parser;
+
+import org.junit.Test;
+import org.watertemplate.TemplateMap;
+import org.watertemplate.interpreter.parser.exception.IncorrectLocationForToken;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class IncrementalParserTest {
+
+    private final IncrementalParser parser = new IncrementalParser();
+
+    @Test
+    public void unchanged() {
+        final AbstractSyntaxTree abstractSyntaxTree = parser.parse("<p>~x~</p>");
+        assertSame(abstractSyntaxTree, parser.parse("<p>~x~</p>"));
+    }
+
+    @Test
+    public void edits() {
+        assertParsesLikeAWhole(
+                "<p>~x~</p>",
+                "<p>~x~ and ~x~</p>",
+                "<p>~if c: ~x~ :~ and ~x~</p>",
+                "<p>~if c: ~x~ :else: no :~ and ~x~</p>",
+                "<h1>title</h1><p>~if c: ~x~ :else: no :~ and ~x~</p>",
+                "<h1>title</h1><p>~if c: ~x~ :else: no :~ and ~x~</p>~for i in l: <li>~i~</li> :~",
+                "<h1>title</h1><p>~if c: ~x~ :else: no :~ and ~x~</p>~for i in l: <li>~i~</li>",
+                "<h1>title</h1><p>~if c: ~x~ :else: no :~ and ~x~</p>~for i in l: <li>~i~</li> :~ ",
+                "<h1>title</h1><p>~x~</p>~for i in l: <li>~i~</li> :~ ",
+                "<h1>title</h1><p>~x~~x~</p>~for i in l: <li>~i~</li> :~ ",
+                "",
+                "~if c: x :~");
+    }
+
+    @Test
+    public void editsKeepTheSymbolTable() {
+        final List<SymbolTable> symbolTables = symbolTables(parser.parse("~x~"));
+        symbolTables.addAll(symbolTables(parser.parse("~x~~y~")));
+
+        assertEquals(3, symbolTables.size());
+        symbolTables.forEach(symbolTable -> assertSame(symbolTables.get(0), symbolTable));
+    }
+
+    private List<SymbolTable> symbolTables(final AbstractSyntaxTree abstractSyntaxTree) {
+        final List<SymbolTable> symbolTables = new ArrayList<>();
+
+        abstractSyntaxTree.emit(new Emitter() {
+            @Override
+            public boolean isFull() {
+                return false;
+            }
+
+            @Override
+            public void append(final String text) {
+            }
+
+            @Override
+            public void evaluate(final AbstractSyntaxTree.Id id) {
+                symbolTables.add(id.getSymbol().getSymbolTable());
+            }
+
+            @Override
+            public void branch(final AbstractSyntaxTree.Id conditionId, final AbstractSyntaxTree ifStatements, final AbstractSyntaxTree elseStatements) {
+            }
+
+            @Override
+            public void loop(final String variableName, final AbstractSyntaxTree.Id collectionId, final AbstractSyntaxTree forStatements, final AbstractSyntaxTree elseStatements) {
+            }
+
+            @Override
+            public void rest(final List<AbstractSyntaxTree> statements) {
+            }
+        });
+
+        return symbolTables;
+    }
+
+    @Test
+    public void unclosedBlocksLookAhead() {
+        assertParsesLikeAWhole(
+                "~if c: <p>~x~</p> <p>~x~</p>",
+                "~if c: <p>~x~</p> <p>~x~</p> :~",
+                "~if c: <p>~x~</p> <p>~x~</p> :",
+                "~if c: <p>~x~</p> <p>~x~</p> :else: ~x~ :~");
+    }
+
+    @Test
+    public void brokenEditsAreForgotten() {
+        parser.parse("~if c: ~x~ :~");
+
+        try {
+            parser.parse("~if c: ~x~ :~ :~");
+            fail();
+        } catch (IncorrectLocationForToken e) {
+            assertEquals(render(parseAsAWhole("~if c: ~x~ :~ ~x~")), render(parser.parse("~if c: ~x~ :~ ~x~")));
+        }
+    }
+
+    private void assertParsesLikeAWhole(final String... versions) {
+        Arrays.stream(versions).forEach(version ->
+                assertEquals(version, render(parseAsAWhole(version)), render(parser.parse(version))));
+    }
+
+    private AbstractSyntaxTree parseAsAWhole(final String template) {
+        return new Parser().parse(new Lexer().lex(new StringReader(template)));
+    }
+
+    private String render(final AbstractSyntaxTree abstractSyntaxTree) {
+        final TemplateMap.Arguments arguments = new TemplateMap.Arguments();
+        arguments.add("x", "X");
+        arguments.add("i", "I");
+        arguments.add("c", true);
+        arguments.addCollection("l", Arrays.asList("1", "2"));
+
+        return abstractSyntaxTree.string(arguments, Locale.US);
+    }
+}
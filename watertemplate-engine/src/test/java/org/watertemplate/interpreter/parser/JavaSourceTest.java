@@ -0,0 +1,140 @@
+package org.watertemplate.interpreter.parser;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.watertemplate.ByteSink;
+import org.watertemplate.TemplateMap;
+import org.watertemplate.interpreter.WaterInterpreter;
+import org.watertemplate.interpreter.parser.exception.IdCouldNotBeResolvedException;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class JavaSourceTest {
+
+    private static final Locale locale = Locale.US;
+
+    @Test
+    public void commands() throws Exception {
+        assertCompiledRendersLikeTheTree(
+                "<h1>~title~</h1>\n" +
+                "~for month in months:\n" +
+                "    <li class=\"~if month.leap: leap :else: regular :~\">~month.name~ ~for day in month.days: ~day~ :~</li>\n" +
+                ":else:\n" +
+                "    nothing\n" +
+                ":~ ~for month in none: x :else: ~if missing: no :else: é :~ :~");
+    }
+
+    @Test
+    public void parallelLoop() throws Exception {
+        assertCompiledRendersLikeTheTree("~for year in years: ~year.name~ ~for month in months: ~month.name~ :~ :~");
+    }
+
+    @Test
+    public void escapedText() throws Exception {
+        assertCompiledRendersLikeTheTree("\"quoted\" \\ back\\slash \\u000a \t\r\n \u0001 \u007f é中 ~title~");
+    }
+
+    @Test
+    public void largeTemplate() throws Exception {
+        final StringBuilder template = new StringBuilder();
+
+        for (int i = 0; i < 5000; i++) {
+            template.append("<li>~title~ ~if missing: ~title~ :~</li>\n");
+        }
+
+        assertCompiledRendersLikeTheTree(template.toString());
+    }
+
+    @Test
+    public void textToByteSinks() throws Exception {
+        final char[] filler = new char[0x3FFE];
+        Arrays.fill(filler, 'a');
+        final String template = new String(filler) + "\ud83d\ude00 \u00e9 ~title~"; // a surrogate pair across two literals
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ByteSink sink = ByteSink.of(bytes, StandardCharsets.UTF_8);
+        compile(parse(template).optimize()).render(arguments(), locale, sink);
+        sink.finish();
+
+        assertEquals(parse(template).string(arguments(), locale), new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void unresolvedNestedId() throws Exception {
+        try {
+            compile(parse("~title~ ~month.name.first~")).string(arguments(), locale);
+            fail();
+        } catch (IdCouldNotBeResolvedException e) {
+            assertEquals("\"month.name.first\" could not be resolved.", e.getMessage());
+        }
+    }
+
+    @Test
+    public void precompiledClassNames() {
+        assertEquals("org.watertemplate.precompiled.Template_en_005fUS_002fa_002fb_002ehtml",
+                WaterInterpreter.precompiledClassName("a/b.html", "en_US"));
+        assertEquals("org.watertemplate.precompiled.Template_en_005fUS_002fa_005fb_002ehtml",
+                WaterInterpreter.precompiledClassName("a_b.html", "en_US"));
+    }
+
+    private void assertCompiledRendersLikeTheTree(final String template) throws Exception {
+        final AbstractSyntaxTree abstractSyntaxTree = parse(template);
+        final Renderer compiled = compile(abstractSyntaxTree.optimize());
+
+        assertEquals(abstractSyntaxTree.string(arguments(), locale), compiled.string(arguments(), locale));
+        assertEquals(abstractSyntaxTree.ids(), compiled.ids());
+    }
+
+    private Renderer compile(final AbstractSyntaxTree abstractSyntaxTree) throws IOException, ReflectiveOperationException {
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        Assume.assumeNotNull(compiler);
+
+        final Path directory = Files.createTempDirectory("watertemplate");
+        final Path source = directory.resolve("test/Template.java");
+        Files.createDirectories(source.getParent());
+        Files.write(source, abstractSyntaxTree.javaSource("test.Template").getBytes(StandardCharsets.UTF_8));
+
+        final String classPath = System.getProperty("java.class.path") + File.pathSeparator + new File("target/classes").getAbsolutePath();
+        assertEquals(0, compiler.run(null, null, null, "-encoding", "UTF-8", "-nowarn", "-classpath", classPath, source.toString()));
+
+        final ClassLoader classLoader = new URLClassLoader(new URL[]{directory.toUri().toURL()}, getClass().getClassLoader());
+        return classLoader.loadClass("test.Template").asSubclass(Renderer.class).newInstance();
+    }
+
+    private AbstractSyntaxTree parse(final String template) {
+        return new Parser().parse(new Lexer().lex(new StringReader(template)));
+    }
+
+    private TemplateMap.Arguments arguments() {
+        final TemplateMap.Arguments arguments = new TemplateMap.Arguments();
+        arguments.add("title", "Months");
+        arguments.add("missing", false);
+        arguments.addCollection("none", Collections.emptyList());
+        arguments.addMappedObject("month", "", (month, map) -> map.add("name", "January"));
+        arguments.addCollection("months", Arrays.asList(28, 31), (days, map) -> {
+            map.add("name", days + " days");
+            map.add("leap", days == 29);
+            map.addCollection("days", Arrays.asList("1", "2", "3"));
+        });
+        arguments.addStream("years", IntStream.range(1900, 2100).boxed().parallel(), (year, map) -> map.add("name", year.toString()));
+
+        return arguments;
+    }
+}
@@ -2,8 +2,13 @@ package org.watertemplate.interpreter.parser;
 
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.Assert.assertEquals;
 
 public class LexerTest {
@@ -30,6 +35,14 @@ public class LexerTest {
         assertEquals(3, lex("a\t\nb").size());
     }
 
+    @Test
+    public void plainTextRuns() {
+        assertEquals(1, lex("<p>lorem ipsum. dolor \t sit amet</p>").size());
+        assertEquals(5, lex("<p>a</p>~x~<br/>").size());
+        assertEquals(4, lex("1.5: ok").size());
+        assertEquals(2, lex("<p>~").size());
+    }
+
     @Test
     public void differentStarts() {
         assertEquals(4, lex(".~i~").size());
@@ -130,7 +143,35 @@ public class LexerTest {
         assertEquals(12, lex("~if x: ~:else:: ~:~").size());
     }
 
+    @Test
+    public void streamedInput() {
+        final String input = String.join("", Collections.nCopies(5000, "<li>~if item.done: ~item.name~ :else: todo :~</li>\n"));
+        final List<Token> expected = lex(input);
+        expected.add(Token.END_OF_INPUT);
+
+        assertEquals(expected.toString(), drain(new Lexer().lex(new ByteArrayInputStream(input.getBytes(UTF_8)), UTF_8)).toString());
+    }
+
+    @Test
+    public void decodedInput() {
+        final String input = String.join("", Collections.nCopies(5000, "<p>a\u00e7\u00e3o ~if \u00e7: \u2713 :else: \u2717 :~</p>\n"));
+        final List<Token> expected = lex(input);
+        expected.add(Token.END_OF_INPUT);
+
+        assertEquals(expected.toString(), drain(new Lexer().lex(ByteBuffer.wrap(input.getBytes(UTF_8)), UTF_8)).toString());
+    }
+
     private List<Token> lex(final String input) {
-        return new Lexer().tokenize(input);
+        return drain(new Lexer().tokenize(input));
+    }
+
+    private List<Token> drain(final TokenStream tokenStream) {
+        final List<Token> tokens = new ArrayList<>();
+
+        for (; tokenStream.remaining() > 0; tokenStream.shift()) {
+            tokens.add(tokenStream.current());
+        }
+
+        return tokens;
     }
 }
\ No newline at end of file
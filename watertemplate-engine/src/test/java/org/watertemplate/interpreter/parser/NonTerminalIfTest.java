@@ -1,9 +1,14 @@
 package org.watertemplate.interpreter.parser;
 
 import org.junit.Test;
+import org.watertemplate.TemplateMap;
 import org.watertemplate.interpreter.parser.exception.IncorrectLocationForToken;
 import org.watertemplate.interpreter.parser.exception.NoMoreTokensOnStreamException;
 
+import java.io.StringReader;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.watertemplate.interpreter.parser.TokenFixture.*;
 
@@ -92,4 +97,19 @@ public class NonTerminalIfTest {
 
         NonTerminal.IF_COMMAND.buildAbstractSyntaxTree(tokenStream);
     }
+
+    @Test(timeout = 10000)
+    public void unclosedNested() {
+        final StringBuilder template = new StringBuilder();
+
+        for (int i = 0; i < 64; i++) {
+            template.append("~if x: <p>~x~</p> ");
+        }
+
+        final TemplateMap.Arguments arguments = new TemplateMap.Arguments();
+        arguments.add("x", "X");
+
+        final AbstractSyntaxTree abstractSyntaxTree = new Parser().parse(new Lexer().lex(new StringReader(template.toString())));
+        assertEquals(template.toString().replace("~x~", "X"), abstractSyntaxTree.string(arguments, Locale.US));
+    }
 }
@@ -1,8 +1,13 @@
 package org.watertemplate.interpreter.parser;
 
 import org.junit.Test;
+import org.watertemplate.TemplateMap;
 import org.watertemplate.interpreter.parser.exception.NoMoreTokensOnStreamException;
 
+import java.util.Arrays;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.watertemplate.interpreter.parser.TokenFixture.*;
 
@@ -41,4 +46,17 @@ public class NonTerminalStartSymbolTest {
 
         assertNotNull(NonTerminal.TEMPLATE.buildAbstractSyntaxTree(tokenStream));
     }
+
+    @Test
+    public void listOfTokens() {
+        final AbstractSyntaxTree abstractSyntaxTree = new Parser().parse(Arrays.asList(
+                Text("a "),
+                Wave(), PropertyKey("x"), Wave(),
+                Token.END_OF_INPUT
+        ));
+
+        final TemplateMap.Arguments arguments = new TemplateMap.Arguments();
+        arguments.add("x", "text");
+        assertEquals("a text", abstractSyntaxTree.string(arguments, Locale.US));
+    }
 }
@@ -1,9 +1,15 @@
 package org.watertemplate.interpreter.parser;
 
 import org.junit.Test;
+import org.watertemplate.TemplateMap;
 
+import java.util.Arrays;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.watertemplate.interpreter.parser.TokenFixture.PropertyKey;
+import static org.watertemplate.interpreter.parser.TokenFixture.Text;
 
 public class NonTerminalStatementsTest {
 
@@ -34,4 +40,13 @@ public class NonTerminalStatementsTest {
 
         assertNotNull(NonTerminal.STATEMENTS.buildAbstractSyntaxTree(tokenStream));
     }
+
+    @Test
+    public void manyStatements() {
+        final Token[] tokens = new Token[200000];
+        Arrays.fill(tokens, Text("a"));
+
+        final AbstractSyntaxTree abstractSyntaxTree = NonTerminal.STATEMENTS.buildAbstractSyntaxTree(new TokenStream(tokens));
+        assertEquals(tokens.length, abstractSyntaxTree.string(new TemplateMap.Arguments(), Locale.US).length());
+    }
 }
@@ -2,6 +2,12 @@ package org.watertemplate.interpreter.parser;
 
 import org.junit.Assert;
 import org.junit.Test;
+import org.watertemplate.TemplateMap;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 import static org.watertemplate.interpreter.parser.TokenFixture.*;
 
@@ -21,4 +27,14 @@ public class TerminalTest {
         Assert.assertNotNull(Terminal.END_OF_BLOCK.buildAbstractSyntaxTree(tokenStream));
     }
 
+    @Test
+    public void textFromRawUtf8() {
+        final String input = "\u00e7\u00e3o \u2713~";
+        final TokenStream tokenStream = new Lexer().lex(ByteBuffer.wrap(input.getBytes(UTF_8)), UTF_8);
+
+        final AbstractSyntaxTree.Text text = (AbstractSyntaxTree.Text) Terminal.TEXT.buildAbstractSyntaxTree(tokenStream);
+
+        Assert.assertEquals("\u00e7\u00e3o \u2713", text.string(new TemplateMap.Arguments(), Locale.US));
+        Assert.assertArrayEquals("\u00e7\u00e3o \u2713".getBytes(UTF_8), text.getBytes());
+    }
 }
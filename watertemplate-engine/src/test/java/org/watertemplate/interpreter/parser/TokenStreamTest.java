@@ -4,6 +4,10 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.util.Collections;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.watertemplate.interpreter.parser.Terminal.*;
 import static org.watertemplate.interpreter.parser.TokenFixture.*;
 
@@ -58,6 +62,22 @@ public class TokenStreamTest {
         Assert.assertEquals(0, tokenStream.remaining());
     }
 
+    @Test
+    public void markKeepsTokensWhileLexingAhead() {
+        final String input = String.join("", Collections.nCopies(10000, "~x~ "));
+        tokenStream = new Lexer().lex(new ByteArrayInputStream(input.getBytes(UTF_8)), UTF_8);
+
+        int mark = tokenStream.mark();
+        while (!current().canBe(END_OF_INPUT)) {
+            tokenStream.shift();
+        }
+        tokenStream.reset(mark);
+        tokenStream.release(mark);
+
+        assertCurrentIsOfType(WAVE);
+        Assert.assertEquals(40000, tokenStream.remaining());
+    }
+
     private void assertCurrentIsOfType(final Terminal terminal) {
         Assert.assertTrue(current().canBe(terminal));
     }
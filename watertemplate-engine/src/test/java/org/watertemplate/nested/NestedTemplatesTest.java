@@ -3,9 +3,14 @@ package org.watertemplate.nested;
 import org.junit.Assert;
 import org.junit.Test;
 import org.watertemplate.Template;
+import org.watertemplate.TemplateObject;
 import org.watertemplate.exception.TemplateException;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Collections;
 import java.util.Locale;
+import java.util.stream.IntStream;
 
 public class NestedTemplatesTest {
 
@@ -64,4 +69,39 @@ public class NestedTemplatesTest {
     public void templateWithSubtemplatesListIteration() {
         Assert.assertEquals("\nsub_template_content\n\nsub_template_content\n", new NestedTemplatesFixture.TemplateWithSubtemplatesListIteration().render());
     }
+
+    @Test
+    public void sameTemplateRenderedByALoopInParallel() {
+        final Template shared = new NestedTemplatesFixture.TemplateWithMasterTemplateAndSubTemplatesThatHaveAMasterTemplate();
+        final String rendered = shared.render();
+
+        final Template template = new Template() {
+            {
+                addStream("items", IntStream.range(0, 1000).mapToObj(i -> new TemplateObject.SubTemplate(shared)).parallel());
+            }
+
+            @Override
+            protected String getFilePath() {
+                return "commands/templateWithFor.html";
+            }
+        };
+
+        Assert.assertEquals(String.join("", Collections.nCopies(1000, "\n" + rendered + "\n")), template.render());
+    }
+
+    @Test
+    public void templateWithMasterTemplateAndSubTemplatesThatHaveAMasterTemplateRenderedToAWriter() throws IOException {
+        final StringWriter writer = new StringWriter();
+        new NestedTemplatesFixture.TemplateWithMasterTemplateAndSubTemplatesThatHaveAMasterTemplate().render(Locale.US, writer);
+
+        Assert.assertEquals(new NestedTemplatesFixture.TemplateWithMasterTemplateAndSubTemplatesThatHaveAMasterTemplate().render(), writer.toString());
+    }
+
+    @Test
+    public void templateWithSubtemplatesListIterationRenderedToAWriter() throws IOException {
+        final StringWriter writer = new StringWriter();
+        new NestedTemplatesFixture.TemplateWithSubtemplatesListIteration().render(Locale.US, writer);
+
+        Assert.assertEquals("\nsub_template_content\n\nsub_template_content\n", writer.toString());
+    }
 }
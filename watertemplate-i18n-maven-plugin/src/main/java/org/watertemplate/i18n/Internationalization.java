@@ -8,11 +8,19 @@ import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.watertemplate.interpreter.WaterInterpreter;
+import org.watertemplate.interpreter.parser.Lexer;
+import org.watertemplate.interpreter.parser.Parser;
+import org.watertemplate.interpreter.parser.exception.ParseException;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 class Internationalization {
@@ -101,11 +109,27 @@ class Internationalization {
 
         MustacheFactory mf = new DefaultMustacheFactory();
         Mustache mustache = mf.compile(file.getAbsolutePath());
-        mustache.execute(new FileWriter(file), func).flush();
+        mustache.execute(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), func).flush();
 
         if (LOGGER.isDebugEnabled()) {
             LOGGER.debug("After: {} ", FileUtils.readFileToString(file));
         }
+
+        serialize(file);
+    }
+
+    /* Writes the optimized tree of the template next to it, so that it is not parsed at runtime. */
+    private void serialize(final File file) throws IOException {
+        final byte[] serialized;
+
+        try (InputStream stream = new FileInputStream(file)) {
+            serialized = new Parser().parse(new Lexer().lex(stream, StandardCharsets.UTF_8)).optimize().serialize();
+        } catch (ParseException e) {
+            LOGGER.warn("{} will be parsed at runtime: {}", file, e.getMessage());
+            return;
+        }
+
+        FileUtils.writeByteArrayToFile(new File(file.getPath() + WaterInterpreter.SERIALIZED_EXTENSION), serialized);
     }
 
     ///
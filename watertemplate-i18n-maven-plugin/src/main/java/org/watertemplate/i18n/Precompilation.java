@@ -0,0 +1,66 @@
+package org.watertemplate.i18n;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.watertemplate.interpreter.WaterInterpreter;
+import org.watertemplate.interpreter.parser.Lexer;
+import org.watertemplate.interpreter.parser.Parser;
+import org.watertemplate.interpreter.parser.exception.ParseException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/*
+ * Writes the source of a renderer for every template of every locale in the destination directory, named as
+ * WaterInterpreter looks them up, so that templates are lexed and parsed when the application is built, not when it runs.
+ */
+class Precompilation {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Precompilation.class);
+
+    private final File destinationDir;
+    private final File outputDir;
+
+    public Precompilation(final String destinationDir, final String outputDir) {
+        this.destinationDir = new File(destinationDir);
+        this.outputDir = new File(outputDir);
+    }
+
+    public void compile() throws IOException {
+        long start = System.currentTimeMillis();
+        int count = 0;
+
+        for (File localeDir : destinationDir.listFiles(File::isDirectory)) {
+            for (File templateFile : FileUtils.listFiles(localeDir, null, true)) {
+                if (templateFile.getName().endsWith(WaterInterpreter.SERIALIZED_EXTENSION)) {
+                    continue;
+                }
+
+                String templateFilePath = localeDir.toURI().relativize(templateFile.toURI()).getPath();
+                compile(templateFile, templateFilePath, localeDir.getName());
+                count++;
+            }
+        }
+
+        LOGGER.info("{} templates precompiled in {}ms", count, System.currentTimeMillis() - start);
+    }
+
+    private void compile(final File templateFile, final String templateFilePath, final String locale) throws IOException {
+        final String className = WaterInterpreter.precompiledClassName(templateFilePath, locale);
+        final String javaSource;
+
+        try (InputStream stream = new FileInputStream(templateFile)) {
+            javaSource = new Parser().parse(new Lexer().lex(stream, StandardCharsets.UTF_8)).optimize().javaSource(className);
+        } catch (ParseException e) {
+            LOGGER.error("Could not parse {}", templateFile);
+            throw e;
+        }
+
+        final File sourceFile = new File(outputDir, className.replace('.', File.separatorChar) + ".java");
+        FileUtils.writeStringToFile(sourceFile, javaSource, StandardCharsets.UTF_8.name());
+    }
+}
@@ -0,0 +1,37 @@
+package org.watertemplate.i18n;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.project.MavenProject;
+import org.watertemplate.interpreter.parser.exception.ParseException;
+
+import java.io.IOException;
+
+@Mojo(name = "precompile", defaultPhase = LifecyclePhase.PROCESS_RESOURCES)
+public class PrecompilationMojo extends AbstractMojo {
+
+    @Parameter(name = "destinationDir", required = true)
+    private String destinationDir;
+
+    @Parameter(name = "outputDir", defaultValue = "${project.build.directory}/generated-sources/watertemplate")
+    private String outputDir;
+
+    @Parameter(defaultValue = "${project}", readonly = true)
+    private MavenProject project;
+
+    @Override
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        try {
+            new Precompilation(destinationDir, outputDir).compile();
+            project.addCompileSourceRoot(outputDir);
+        } catch (ParseException e) {
+            throw new MojoFailureException(e.getMessage(), e);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Error in precompilation.", e);
+        }
+    }
+}
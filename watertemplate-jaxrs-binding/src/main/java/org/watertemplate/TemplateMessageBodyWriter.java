@@ -4,6 +4,7 @@ package org.watertemplate;
 import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.ext.MessageBodyWriter;
@@ -12,10 +13,15 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 
 @Provider
 public class TemplateMessageBodyWriter implements MessageBodyWriter<Template> {
 
+    private static final ThreadLocal<ByteBuffer> buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocate(8192));
+
     @Context
     private HttpServletRequest request;
 
@@ -31,8 +37,14 @@ public class TemplateMessageBodyWriter implements MessageBodyWriter<Template> {
 
     @Override
     public void writeTo(Template template, Class<?> aClass, Type type, Annotation[] annotations, MediaType mediaType, MultivaluedMap<String, Object> stringObjectMultivaluedMap, OutputStream outputStream) throws IOException, WebApplicationException {
-        final String build = template.render(request.getLocale());
-        outputStream.write(build.getBytes());
-        outputStream.flush();
+        final String charset = mediaType.getParameters().get(MediaType.CHARSET_PARAMETER);
+
+        if (charset == null) {
+            stringObjectMultivaluedMap.putSingle(HttpHeaders.CONTENT_TYPE, mediaType.withCharset(StandardCharsets.UTF_8.name()));
+        }
+
+        final ByteSink sink = ByteSink.of(outputStream, charset == null ? StandardCharsets.UTF_8 : Charset.forName(charset), buffers.get());
+        template.render(request.getLocale(), sink);
+        sink.finish();
     }
 }